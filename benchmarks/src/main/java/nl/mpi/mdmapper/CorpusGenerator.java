@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Generator of synthetic corpora of CMDI records for throughput
+ * benchmarks. Records are made from the sample record by giving each
+ * its own identifiers and adding actors until it reaches the desired
+ * size. Generation is deterministic, so a corpus with the same
+ * parameters is always the same.
+ * <p>
+ * Layouts:
+ * <ul>
+ * <li>flat: all records in one directory</li>
+ * <li>deep: records spread over a tree of directories, 10 per level
+ *     and 4 levels deep</li>
+ * </ul>
+ * Sizes:
+ * <ul>
+ * <li>a number of bytes: all records about that size</li>
+ * <li>mixed: mostly small records (2 kB), some medium (50 kB) and a
+ *     few very large ones (3 MB)</li>
+ * </ul>
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+public class CorpusGenerator {
+    /** Marker file describing a generated corpus. */
+    static final String DESCRIPTION = "corpus.properties";
+
+    private static final int FANOUT = 10;
+    private static final int DEPTH = 4;
+
+    private final String template;
+    private final String layout;
+    private final String size;
+    private final int count;
+
+    /** Number of bytes generated. */
+    private long bytes;
+
+    /**
+     * Create a new generator.
+     *
+     * @param layout "flat" or "deep"
+     * @param size record size in bytes, or "mixed"
+     * @param count number of records
+     */
+    public CorpusGenerator(String layout, String size, int count) throws IOException {
+	if (!layout.equals("flat") && !layout.equals("deep"))
+	    throw new IllegalArgumentException("Unknown layout " + layout);
+	if (!size.equals("mixed"))
+	    Integer.parseInt(size);
+	this.layout = layout;
+	this.size = size;
+	this.count = count;
+	try (InputStream in = Samples.class.getClassLoader().getResourceAsStream(Samples.RECORD)) {
+	    template = new String(readAll(in), StandardCharsets.UTF_8);
+	}
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+	ByteArrayOutputStream out = new ByteArrayOutputStream();
+	byte[] buf = new byte[8192];
+	int n;
+	while ((n = in.read(buf)) > 0)
+	    out.write(buf, 0, n);
+	return out.toByteArray();
+    }
+
+    /**
+     * Generate the corpus in the given directory, unless a corpus
+     * with the same parameters is there already.
+     *
+     * @return description of the corpus, including its number of
+     * records and bytes
+     */
+    public Properties generate(Path dir) throws IOException {
+	Properties wanted = new Properties();
+	wanted.setProperty("layout", layout);
+	wanted.setProperty("size", size);
+	wanted.setProperty("count", Integer.toString(count));
+
+	Path descFile = dir.resolve(DESCRIPTION);
+	if (Files.exists(descFile)) {
+	    Properties existing = new Properties();
+	    try (Reader r = Files.newBufferedReader(descFile, StandardCharsets.UTF_8)) {
+		existing.load(r);
+	    }
+	    if (wanted.getProperty("layout").equals(existing.getProperty("layout"))
+		&& wanted.getProperty("size").equals(existing.getProperty("size"))
+		&& wanted.getProperty("count").equals(existing.getProperty("count")))
+		return existing;
+	    throw new IOException("Directory " + dir + " holds a different corpus; remove it first");
+	}
+
+	Files.createDirectories(dir);
+	Random random = new Random(count);
+	bytes = 0;
+	for (int i=0; i<count; i++) {
+	    Path file = dir.resolve(relativePath(i));
+	    Files.createDirectories(file.getParent());
+	    byte[] rec = record(i, recordSize(i, random)).getBytes(StandardCharsets.UTF_8);
+	    Files.write(file, rec);
+	    bytes += rec.length;
+	}
+
+	wanted.setProperty("bytes", Long.toString(bytes));
+	try (Writer w = Files.newBufferedWriter(descFile, StandardCharsets.UTF_8)) {
+	    wanted.store(w, "Generated by " + CorpusGenerator.class.getName());
+	}
+	return wanted;
+    }
+
+    /**
+     * Path of a record within the corpus directory.
+     */
+    private String relativePath(int i) {
+	String name = "record" + i + ".xml";
+	if (layout.equals("flat"))
+	    return name;
+	StringBuilder sb = new StringBuilder();
+	int n = i;
+	for (int d=0; d<DEPTH; d++) {
+	    sb.append("d").append(n % FANOUT).append('/');
+	    n /= FANOUT;
+	}
+	return sb.append(name).toString();
+    }
+
+    private int recordSize(int i, Random random) {
+	if (!size.equals("mixed"))
+	    return Integer.parseInt(size);
+	int r = random.nextInt(1000);
+	if (r < 5)
+	    return 3 << 20;
+	if (r < 100)
+	    return 50 << 10;
+	return 2 << 10;
+    }
+
+    /**
+     * Make a record of (at least) the given size in characters.
+     */
+    String record(int i, int size) {
+	String rec = template
+	    .replace("hdl:1839/00-0000-0000-0009-2B7E-3", "hdl:1839/bench-" + i)
+	    .replace("<Name>kleve_route_01</Name>", "<Name>session_" + i + "</Name>");
+	int missing = size - rec.length();
+	if (missing <= 0)
+	    return rec;
+
+	int at = rec.indexOf("</Actors>");
+	StringBuilder sb = new StringBuilder(size + 512);
+	sb.append(rec, 0, at);
+	for (int n=0; missing > 0; n++) {
+	    int before = sb.length();
+	    sb.append("  <Actor>\n")
+		.append("            <Role>Participant</Role>\n")
+		.append("            <Name>Participant ").append(i).append('-').append(n).append("</Name>\n")
+		.append("            <Age>").append(20 + n % 60).append("</Age>\n")
+		.append("            <Description>Participant number ").append(n)
+		.append(" of the recording, speaking the local dialect.</Description>\n")
+		.append("          </Actor>\n          ");
+	    missing -= sb.length() - before;
+	}
+	sb.append(rec, at, rec.length());
+	return sb.toString();
+    }
+
+    /**
+     * Generate a corpus from the command line.
+     */
+    public static void main(String[] args) throws IOException {
+	if (args.length != 4) {
+	    System.err.println("Usage: CorpusGenerator <directory> <flat|deep> <size in bytes|mixed> <count>");
+	    System.exit(1);
+	}
+	Properties p = new CorpusGenerator(args[1], args[2], Integer.parseInt(args[3]))
+	    .generate(Paths.get(args[0]));
+	System.out.println(p.getProperty("count") + " records, " + p.getProperty("bytes")
+			   + " bytes in " + args[0]);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper;
+
+import nl.mpi.mdmapper.output.FacetList;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of mapping a single record with each engine: parsing
+ * and evaluation together, and separately.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {
+	"-Dlog4j.configuration=benchmark-log4j.properties",
+	"-Djavax.xml.xpath.XPathFactory:http://java.sun.com/jaxp/xpath/dom=net.sf.saxon.xpath.XPathFactoryImpl"})
+public class MappingBenchmark {
+    @Param({"dom", "saxon", "stream", "xslt"})
+    public String engine;
+
+    private MappingTable table;
+    private Path record;
+    private Record parsed;
+
+    @Setup
+    public void setup() throws Exception {
+	table = Samples.mappingTable(engine);
+	record = Samples.extract(Samples.RECORD);
+	parsed = table.parse(record);
+    }
+
+    /** Parse and map a record, as done for each input file. */
+    @Benchmark
+    public FacetList applyMappings() throws Exception {
+	return table.applyMappings(record);
+    }
+
+    /** Parse a record only. */
+    @Benchmark
+    public Record parse() throws Exception {
+	return table.parse(record);
+    }
+
+    /**
+     * Map an already parsed record. Note that the stream and xslt
+     * engines compute most values while parsing, so for them this
+     * mostly measures looking the values up.
+     */
+    @Benchmark
+    public FacetList evaluate() {
+	return table.applyMappings(parsed);
+    }
+}
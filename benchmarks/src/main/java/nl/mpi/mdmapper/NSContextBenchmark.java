@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of namespace lookups, which XPath engines perform when
+ * compiling and evaluating expressions.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=benchmark-log4j.properties")
+public class NSContextBenchmark {
+    private NSContext ns;
+
+    @Setup
+    public void setup() {
+	ns = new NSContext();
+	ns.add("cmd", "http://www.clarin.eu/cmd/");
+	ns.add("xsi", "http://www.w3.org/2001/XMLSchema-instance");
+	ns.add("olac", "http://www.language-archives.org/OLAC/1.1/");
+	ns.add("dc", "http://purl.org/dc/elements/1.1/");
+	ns.add("dcterms", "http://purl.org/dc/terms/");
+    }
+
+    @Benchmark
+    public String getNamespaceURI() {
+	return ns.getNamespaceURI("dc");
+    }
+
+    @Benchmark
+    public String getPrefix() {
+	return ns.getPrefix("http://purl.org/dc/terms/");
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Sample inputs for the benchmarks. They are packaged as resources,
+ * and copied into temporary files since the mapper reads files.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+public class Samples {
+    /** A realistic CMDI record (an IMDI session converted to CMDI). */
+    public static final String RECORD = "records/cmdi-session.xml";
+
+    /** A mapping file in the style of the CLARIN CMDI mappings. */
+    public static final String MAPFILE = "mapfiles/clarin-cmdi.xml";
+
+    private Samples() {
+    }
+
+    /**
+     * Copy a resource into a temporary file, deleted on exit.
+     *
+     * @param resource name of the resource
+     * @return the file
+     */
+    public static Path extract(String resource) throws IOException {
+	String name = resource.substring(resource.lastIndexOf('/') + 1);
+	Path file = Files.createTempFile("bench-", "-" + name);
+	file.toFile().deleteOnExit();
+	try (InputStream in = Samples.class.getClassLoader().getResourceAsStream(resource)) {
+	    if (in == null)
+		throw new IOException("Resource not found: " + resource);
+	    Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+	}
+	return file;
+    }
+
+    /**
+     * Create a mapping table from the sample mapping file.
+     *
+     * @param engine evaluation engine to use
+     */
+    public static MappingTable mappingTable(String engine) throws IOException {
+	Configuration config = new Configuration();
+	config.setParam("engine", engine);
+	config.setParam("harvester", "benchmark");
+	return new MappingTable(extract(MAPFILE).toString(), config);
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper;
+
+import nl.mpi.mdmapper.output.FacetList;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of variable expansion in string mappings.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=benchmark-log4j.properties")
+public class StringMappingBenchmark {
+    private static final String TEMPLATE = "${harvester} (${filename}, ${collection})";
+
+    private Configuration config;
+    private FacetList fl;
+    private StringMapping mapping;
+
+    @Setup
+    public void setup() {
+	config = new Configuration();
+	config.setParam("harvester", "OAI harvester");
+	config.setParam("collection", "The Language Archive");
+	fl = new FacetList("/data/harvest/cmdi/The_Language_Archive/oai_1839_00-0000-0000-0009-2B7E-3.xml");
+	mapping = new StringMapping(TEMPLATE, config);
+    }
+
+    /** Expand a template from scratch. */
+    @Benchmark
+    public String expand() {
+	return StringMapping.expand(TEMPLATE, config, fl);
+    }
+
+    /** Apply a string mapping, as done for each record. */
+    @Benchmark
+    public String apply() throws MappingException {
+	return mapping.apply(null, fl);
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * End-to-end throughput benchmark: runs the whole mapper
+ * (Main.process) over generated corpora and reports records and
+ * megabytes per second, peak heap usage and time spent in garbage
+ * collection.
+ * <p>
+ * Usage: ThroughputBenchmark &lt;work directory&gt; [scenario...]
+ * [count=N] [runs=N] [param=value...]
+ * <p>
+ * Corpora are generated in the work directory on first use and kept
+ * for later runs. Other parameters (threads, engine etc.) are passed
+ * on to the mapper. The first run of each scenario includes JIT
+ * warm-up; compare the later ones.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+public class ThroughputBenchmark {
+    /** A corpus shape and set of outputs to measure. */
+    private static class Scenario {
+	final String layout;
+	final String size;
+	final int count;
+	final String[] outputs;
+
+	Scenario(String layout, String size, int count, String... outputs) {
+	    this.layout = layout;
+	    this.size = size;
+	    this.count = count;
+	    this.outputs = outputs;
+	}
+    }
+
+    private static final Map<String, Scenario> scenarios = new LinkedHashMap<>();
+    static {
+	scenarios.put("flat", new Scenario("flat", "4096", 500000, "ckan3json"));
+	scenarios.put("deep", new Scenario("deep", "4096", 100000, "ckan3json"));
+	scenarios.put("mixed", new Scenario("flat", "mixed", 20000, "ckan3json"));
+	scenarios.put("outputs", new Scenario("flat", "4096", 100000,
+					      "ckan3json", "simplejson", "xml", "jsonl"));
+    }
+
+    public static void main(String[] args) throws Exception {
+	// Keep logging from distorting the measurements, and select
+	// Saxon's XPath implementation for the DOM engine.
+	System.setProperty("log4j.configuration", "benchmark-log4j.properties");
+	System.setProperty("javax.xml.xpath.XPathFactory:http://java.sun.com/jaxp/xpath/dom",
+			   "net.sf.saxon.xpath.XPathFactoryImpl");
+
+	if (args.length < 1) {
+	    System.err.println("Usage: ThroughputBenchmark <work directory> [scenario...] "
+			       + "[count=N] [runs=N] [param=value...]");
+	    System.err.println("Scenarios: " + scenarios.keySet());
+	    System.exit(1);
+	}
+	Path work = Paths.get(args[0]);
+	List<String> names = new ArrayList<>();
+	Map<String, String> params = new LinkedHashMap<>();
+	Integer count = null;
+	int runs = 3;
+	for (String arg : Arrays.asList(args).subList(1, args.length)) {
+	    int eq = arg.indexOf('=');
+	    if (eq < 0) {
+		if (!scenarios.containsKey(arg)) {
+		    System.err.println("Unknown scenario " + arg + "; known: " + scenarios.keySet());
+		    System.exit(1);
+		}
+		names.add(arg);
+	    } else if (arg.startsWith("count=")) {
+		count = Integer.valueOf(arg.substring(eq+1));
+	    } else if (arg.startsWith("runs=")) {
+		runs = Integer.parseInt(arg.substring(eq+1));
+	    } else {
+		params.put(arg.substring(0, eq), arg.substring(eq+1));
+	    }
+	}
+	if (names.isEmpty())
+	    names.addAll(scenarios.keySet());
+
+	Files.createDirectories(work);
+	Path mapFile = Samples.extract(Samples.MAPFILE);
+	System.out.printf("%-8s %3s %9s %9s %8s %10s %8s %9s %10s%n", "scenario", "run", "records",
+			  "MB", "seconds", "records/s", "MB/s", "heap MB", "GC ms");
+	for (String name : names) {
+	    Scenario s = scenarios.get(name);
+	    int n = (count != null) ? count : s.count;
+	    Path corpus = work.resolve("corpus-" + s.layout + "-" + s.size + "-" + n);
+	    Properties desc = new CorpusGenerator(s.layout, s.size, n).generate(corpus);
+	    long bytes = Long.parseLong(desc.getProperty("bytes"));
+
+	    Path config = writeConfig(work, name, s, corpus, mapFile);
+	    Path out = work.resolve("out-" + name);
+	    for (int run=1; run<=runs; run++) {
+		delete(out);
+		Result r = measure(config, params);
+		double mb = bytes / 1e6;
+		System.out.printf("%-8s %3d %9d %9.1f %8.2f %10.0f %8.1f %9.1f %10d%n", name, run, n, mb,
+				  r.seconds, n / r.seconds, mb / r.seconds, r.peakHeap / 1e6, r.gcMillis);
+	    }
+	    delete(out);
+	}
+    }
+
+    /**
+     * Write a configuration file for a scenario.
+     */
+    private static Path writeConfig(Path work, String name, Scenario s, Path corpus, Path mapFile)
+	throws IOException {
+	Path file = work.resolve("config-" + name + ".xml");
+	try (Writer w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+	    w.write("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n<config>\n  <params>\n");
+	    w.write("    <mapfile>" + mapFile + "</mapfile>\n");
+	    w.write("    <inputdir>" + corpus + "</inputdir>\n");
+	    w.write("    <outputdir>" + work.resolve("out-" + name) + "</outputdir>\n");
+	    w.write("    <harvester>benchmark</harvester>\n");
+	    w.write("  </params>\n  <outputs>\n");
+	    for (String type : s.outputs)
+		w.write("    <output type=\"" + type + "\">" + type + "</output>\n");
+	    w.write("  </outputs>\n</config>\n");
+	}
+	return file;
+    }
+
+    private static class Result {
+	double seconds;
+	long peakHeap;
+	long gcMillis;
+    }
+
+    /**
+     * Run the mapper once and measure it.
+     */
+    private static Result measure(Path configFile, Map<String, String> params) throws Exception {
+	Configuration config = new Configuration();
+	config.setParam("config", configFile.toString());
+	for (Map.Entry<String, String> e : params.entrySet())
+	    config.setParam(e.getKey(), e.getValue());
+	config.readConfigurationFile();
+
+	System.gc();
+	List<MemoryPoolMXBean> heap = new ArrayList<>();
+	for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+	    if (pool.getType() == MemoryType.HEAP) {
+		pool.resetPeakUsage();
+		heap.add(pool);
+	    }
+	}
+	long gc = gcMillis();
+	long start = System.nanoTime();
+
+	Main.process(config);
+
+	Result r = new Result();
+	r.seconds = (System.nanoTime() - start) / 1e9;
+	r.gcMillis = gcMillis() - gc;
+	// The sum of the peaks of each pool; an upper bound of the
+	// peak of the whole heap.
+	for (MemoryPoolMXBean pool : heap)
+	    r.peakHeap += pool.getPeakUsage().getUsed();
+	return r;
+    }
+
+    private static long gcMillis() {
+	long total = 0;
+	for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+	    total += Math.max(0, gc.getCollectionTime());
+	return total;
+    }
+
+    /**
+     * Delete a directory tree, if it exists.
+     */
+    private static void delete(Path dir) throws IOException {
+	if (!Files.exists(dir))
+	    return;
+	Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+	    @Override
+	    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+		Files.delete(file);
+		return FileVisitResult.CONTINUE;
+	    }
+	    @Override
+	    public FileVisitResult postVisitDirectory(Path d, IOException e) throws IOException {
+		Files.delete(d);
+		return FileVisitResult.CONTINUE;
+	    }
+	});
+    }
+}
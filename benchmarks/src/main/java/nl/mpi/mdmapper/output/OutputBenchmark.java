@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper.output;
+
+import nl.mpi.mdmapper.MappingTable;
+import nl.mpi.mdmapper.Samples;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of saving a mapped record in each kind of output,
+ * including writing the file.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {
+	"-Dlog4j.configuration=benchmark-log4j.properties",
+	"-Djavax.xml.xpath.XPathFactory:http://java.sun.com/jaxp/xpath/dom=net.sf.saxon.xpath.XPathFactoryImpl"})
+public class OutputBenchmark {
+    /** Output type, with "-pretty" for pretty printing. */
+    @Param({"simplejson", "simplejson-pretty", "ckan3json", "ckan3json-pretty",
+	    "xml", "xml-pretty", "jsonl", "jsonl-ckan3json"})
+    public String type;
+
+    private Output output;
+    private FacetList record;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+	MappingTable table = Samples.mappingTable("dom");
+	record = table.applyMappings(Samples.extract(Samples.RECORD));
+
+	Path dir = Files.createTempDirectory("bench-output");
+	dir.toFile().deleteOnExit();
+	boolean pretty = type.endsWith("-pretty");
+	switch (type.replace("-pretty", "")) {
+	    case "simplejson":
+		output = new PlainJsonOutput(pretty, dir);
+		break;
+	    case "ckan3json":
+		output = new Ckan3JsonOutput(pretty, dir);
+		break;
+	    case "xml":
+		output = new PlainXmlOutput(pretty, dir);
+		break;
+	    case "jsonl":
+		output = new JsonLinesOutput(false, false, 0, 0, dir);
+		break;
+	    default:
+		output = new JsonLinesOutput(true, false, 0, 0, dir);
+		break;
+	}
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+	output.close();
+    }
+
+    @Benchmark
+    public void save() {
+	output.save(record);
+    }
+}
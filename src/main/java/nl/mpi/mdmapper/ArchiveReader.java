@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Reads records from compressed files and archives: a single record
+ * compressed with gzip or bzip2 (x.xml.gz, x.xml.bz2), or the records
+ * in a zip or tar archive (possibly compressed). Archives are read
+ * sequentially, entry by entry, without unpacking them anywhere; each
+ * entry ending in ".xml" is a record, whose source is the path of the
+ * archive followed by "!/" and the name of the entry. If the input
+ * consists of OAI-PMH ListRecords responses, each entry is read as
+ * one (see {@link ListRecordsReader}).
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+final class ArchiveReader {
+    private static final Logger logger = Logger.getLogger(ArchiveReader.class);
+
+    private static final String[] ARCHIVES = {
+	".zip", ".tar", ".tar.gz", ".tgz", ".tar.bz2", ".tbz2"
+    };
+    private static final String[] COMPRESSED = { ".xml.gz", ".xml.bz2" };
+
+    private ArchiveReader() {
+    }
+
+    /**
+     * Check whether a file is a compressed file or archive that can be
+     * read, judging by its name.
+     */
+    static boolean isArchive(String fileName) {
+	String name = fileName.toLowerCase(Locale.ROOT);
+	for (String s : ARCHIVES) {
+	    if (name.endsWith(s))
+		return true;
+	}
+	for (String s : COMPRESSED) {
+	    if (name.endsWith(s))
+		return true;
+	}
+	return false;
+    }
+
+    /**
+     * Read the records of a compressed file or archive.
+     *
+     * @param file the file
+     * @param listRecords true if the records are in OAI-PMH
+     * ListRecords responses
+     * @param handler receiver of each record
+     * @return number of records found
+     */
+    static int read(Path file, boolean listRecords, RecordInput.Handler handler)
+	throws IOException, XMLStreamException {
+	String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+	String systemId = file.toFile().toURI().toASCIIString();
+	try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+	    if (name.endsWith(".zip"))
+		return read(new ZipArchiveInputStream(in), file, systemId, listRecords, handler);
+	    if (name.endsWith(".tar"))
+		return read(new TarArchiveInputStream(in), file, systemId, listRecords, handler);
+	    if (name.endsWith(".tar.gz") || name.endsWith(".tgz"))
+		return read(new TarArchiveInputStream(new GzipCompressorInputStream(in, true)),
+			    file, systemId, listRecords, handler);
+	    if (name.endsWith(".tar.bz2") || name.endsWith(".tbz2"))
+		return read(new TarArchiveInputStream(new BZip2CompressorInputStream(in, true)),
+			    file, systemId, listRecords, handler);
+
+	    // A single compressed file, named after the file without the
+	    // suffix of the compression.
+	    String source = file.toString();
+	    source = source.substring(0, source.lastIndexOf('.'));
+	    InputStream data = name.endsWith(".gz")
+		? new GzipCompressorInputStream(in, true)
+		: new BZip2CompressorInputStream(in, true);
+	    return read(data, source, systemId, listRecords, handler);
+	}
+    }
+
+    /**
+     * Read the records in the entries of an archive. Each is named
+     * after the archive and the entry, e.g. "/data/a.zip!/x/y.xml".
+     */
+    private static int read(ArchiveInputStream archive, Path file, String systemId,
+			    boolean listRecords, RecordInput.Handler handler)
+	throws IOException, XMLStreamException {
+	int count = 0;
+	for (ArchiveEntry e = archive.getNextEntry(); e != null; e = archive.getNextEntry()) {
+	    if (e.isDirectory())
+		continue;
+	    if (!e.getName().endsWith(".xml") || !archive.canReadEntryData(e)) {
+		logger.debug("Skip: " + systemId + " " + e.getName());
+		continue;
+	    }
+	    count += read(archive, file + "!/" + e.getName(), systemId, listRecords, handler);
+	}
+	return count;
+    }
+
+    /**
+     * Read the record (or ListRecords response) in a stream, up to
+     * its end. The stream is not closed.
+     */
+    private static int read(InputStream in, String source, String systemId, boolean listRecords,
+			    RecordInput.Handler handler) throws IOException, XMLStreamException {
+	if (listRecords)
+	    return ListRecordsReader.read(in, systemId, handler);
+
+	ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192);
+	byte[] buf = new byte[8192];
+	int n;
+	while ((n = in.read(buf)) != -1)
+	    bytes.write(buf, 0, n);
+	handler.record(new RecordInput(source, systemId, bytes.toByteArray()));
+	return 1;
+    }
+}
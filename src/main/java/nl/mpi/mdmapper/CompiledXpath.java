@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper;
+
+import javax.xml.xpath.XPathExpressionException;
+
+/**
+ * An XPath expression compiled by an engine.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+interface CompiledXpath {
+    /**
+     * Evaluate the expression on a record parsed by the same engine.
+     *
+     * @param rec the record
+     * @return string value of the first item of the result, or the
+     * empty string if the result is empty
+     */
+    String evaluate(Record rec) throws XPathExpressionException;
+}
@@ -19,13 +19,17 @@
 package nl.mpi.mdmapper;
 
 import nl.mpi.mdmapper.output.Output;
+import nl.mpi.mdmapper.parser.CatalogResolver;
+import nl.mpi.mdmapper.parser.Parsers;
 
 import org.apache.log4j.Logger;
 
+import java.util.Collections;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.TreeMap;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
@@ -33,8 +37,6 @@ import org.w3c.dom.NodeList;
 import org.w3c.dom.NamedNodeMap;
 
 import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathConstants;
@@ -58,11 +60,13 @@ public class Configuration {
 
     private Map<String, String> params;
     private List<Output> outputs;
+    private List<String> outputSettings;
 
     /** Create an empty configuration object. */
     public Configuration() {
 	params = new HashMap<>();
 	outputs = new ArrayList<>();
+	outputSettings = new ArrayList<>();
     }
 
     /**
@@ -70,20 +74,12 @@ public class Configuration {
      * already set are not overwritten.
      */
     public void readConfigurationFile() throws UnknownParameterException {
-	String file = params.get("config");
-	// Default configuration file name.
-	if (file == null)
-	    file = "config.xml";
+	String file = getConfigfile();
 	XPathFactory factory = XPathFactory.newInstance();
 	XPath xpath = factory.newXPath();
-	DocumentBuilder db;
-	try {
-	    DocumentBuilderFactory fac = DocumentBuilderFactory.newInstance();
-	    db = fac.newDocumentBuilder();
-	} catch (ParserConfigurationException eE) {
-	    logger.error("Cannot create parser", eE);
-	    return;
-	}
+	// The catalog is not known yet, but nothing is fetched from the
+	// network in any case.
+	DocumentBuilder db = new Parsers(new CatalogResolver(null, false), false).getDocumentBuilder();
 	Document doc;
 	NodeList nl;
 
@@ -118,8 +114,10 @@ public class Configuration {
 	    Node t = attr.getNamedItem("type");
 	    if (t == null) continue;
 	    String type = t.getNodeValue();
+	    outputSettings.add(describe(attr, node.getTextContent()));
 
-	    if (type.equals("simplejson") || type.equals("ckan3json") || type.equals("xml")) {
+	    if (type.equals("simplejson") || type.equals("ckan3json") || type.equals("xml")
+		|| type.equals("jsonl")) {
 		boolean pp = false;
 		t = attr.getNamedItem("prettyPrint");
 		if (t != null)
@@ -149,6 +147,13 @@ public class Configuration {
 		    case "ckan3json":
 			o = new nl.mpi.mdmapper.output.Ckan3JsonOutput(pp, dir);
 			break;
+		    case "jsonl":
+			o = new nl.mpi.mdmapper.output.JsonLinesOutput
+			    ("ckan3json".equals(getAttribute(attr, "format")),
+			     Boolean.valueOf(getAttribute(attr, "gzip")),
+			     parseLong(getAttribute(attr, "maxRecords")),
+			     parseLong(getAttribute(attr, "maxBytes")), dir);
+			break;
 		    default:
 			o = new nl.mpi.mdmapper.output.PlainXmlOutput(pp, dir);
 			break;
@@ -160,6 +165,38 @@ public class Configuration {
 	}
     }
 
+    /**
+     * Describe the settings of an output: its attributes in order of
+     * name, followed by its directory.
+     */
+    private static String describe(NamedNodeMap attr, String dirName) {
+	Map<String, String> sorted = new TreeMap<>();
+	for (int i=0; i<attr.getLength(); i++)
+	    sorted.put(attr.item(i).getNodeName(), attr.item(i).getNodeValue());
+	return sorted + " " + dirName;
+    }
+
+    private static String getAttribute(NamedNodeMap attr, String name) {
+	Node n = attr.getNamedItem(name);
+	return (n == null) ? null : n.getNodeValue();
+    }
+
+    /**
+     * Parse a number from an attribute of an output, which may be
+     * missing (meaning 0).
+     */
+    private static long parseLong(String val) {
+	if (val == null || val.trim().isEmpty())
+	    return 0;
+	try {
+	    return Long.parseLong(val.trim());
+	} catch (NumberFormatException e) {
+	    logger.error("FATAL: '" + val + "' is not a number.");
+	    System.exit(1);
+	    return 0;
+	}
+    }
+
     /**
      * Set a parameter to a specified value, overriding previous value.
      */
@@ -175,10 +212,29 @@ public class Configuration {
 	return params.get(key);
     }
 
+    /**
+     * Get all parameters and their values.
+     *
+     * @return unmodifiable map of values indexed by parameter name
+     */
+    public Map<String, String> getParams() {
+	return Collections.unmodifiableMap(params);
+    }
+
     public Output[] getOutputs() {
 	return outputs.toArray(new Output[outputs.size()]);
     }
 
+    /**
+     * Get the settings of each output read from the configuration
+     * file, in a form that changes whenever the output would.
+     *
+     * @return unmodifiable list of descriptions, one per output
+     */
+    public List<String> getOutputSettings() {
+	return Collections.unmodifiableList(outputSettings);
+    }
+
     // These are helpers for specific configuration parameters, used
     // so that the compiler can check calls. (Using getParam
     // everywhere would risk typos in the parameter names.)
@@ -188,10 +244,159 @@ public class Configuration {
     public String getInputdir() {
 	return getParam("inputdir");
     }
+    /**
+     * Get whether input files are OAI-PMH ListRecords responses, each
+     * holding many records, rather than single records.
+     */
+    public boolean getListRecords() {
+	return Boolean.valueOf(getParam("listrecords"));
+    }
+
+    /**
+     * Get the name of the file listing the input files to process
+     * instead of walking the input directory ("-" for standard
+     * input), or null to walk the directory.
+     */
+    public String getInputlist() {
+	String list = getParam("inputlist");
+	return (list == null || list.isEmpty()) ? null : list;
+    }
     public String getOutputdir() {
 	return getParam("outputdir");
     }
     public String getSavestats() {
 	return getParam("savestats");
     }
+
+    /**
+     * Get the name of the file for the JSON run report. By default
+     * it is written next to the statistics file (e.g. stats.log gives
+     * stats-report.json), or not at all if statistics are not saved
+     * in a file.
+     *
+     * @return file name, or null for no report
+     */
+    public String getReport() {
+	String file = getParam("report");
+	if (file != null)
+	    return file.isEmpty() ? null : file;
+	String stats = getSavestats();
+	if (stats == null || stats.isEmpty())
+	    return null;
+	Path p = Paths.get(stats);
+	String name = p.getFileName().toString();
+	int dot = name.lastIndexOf('.');
+	if (dot > 0)
+	    name = name.substring(0, dot);
+	return p.resolveSibling(name + "-report.json").toString();
+    }
+
+    /**
+     * Get the name of the configuration file (default config.xml).
+     */
+    public String getConfigfile() {
+	String file = getParam("config");
+	return (file == null) ? "config.xml" : file;
+    }
+
+    /**
+     * Get the name of the manifest file used for incremental
+     * processing, or null if all files are to be processed.
+     */
+    public String getManifest() {
+	String file = getParam("manifest");
+	return (file == null || file.isEmpty()) ? null : file;
+    }
+
+    /**
+     * Get whether incremental processing compares the contents of
+     * files, not only their size and modification time.
+     */
+    public boolean getManifestHash() {
+	return Boolean.valueOf(getParam("manifesthash"));
+    }
+
+    /**
+     * Get the name of the evaluation engine (dom, saxon, stream or
+     * xslt), or null
+     * for the default.
+     */
+    public String getEngine() {
+	return getParam("engine");
+    }
+
+    /**
+     * Get the directory of the local catalog of DTDs and other
+     * external entities, or null if there is none.
+     */
+    public Path getCatalog() {
+	String dir = getParam("catalog");
+	return (dir == null || dir.isEmpty()) ? null : Paths.get(dir);
+    }
+
+    /**
+     * Check whether external entities that are not in the catalog may
+     * be fetched from their URLs (default false).
+     */
+    public boolean getExternalEntities() {
+	return Boolean.valueOf(getParam("externalentities"));
+    }
+
+    /**
+     * Get the number of threads used for mapping records (default 1,
+     * i.e. sequential processing).
+     */
+    public int getThreads() {
+	return getIntParam("threads", 1);
+    }
+
+    /**
+     * Get the number of threads that list input directories (default
+     * 1, i.e. a plain sequential walk).
+     */
+    public int getScanThreads() {
+	return getIntParam("scanthreads", 1);
+    }
+
+    /**
+     * Get whether input files are visited in a deterministic order
+     * (depth first, by name) even when directories are listed by
+     * several threads.
+     */
+    public boolean getScanSorted() {
+	return Boolean.valueOf(getParam("scansorted"));
+    }
+
+    /**
+     * Get the number of threads that write output asynchronously
+     * (default 0, i.e. records are written by the threads that map
+     * them).
+     */
+    public int getWriterThreads() {
+	return getIntParam("writerthreads", 0);
+    }
+
+    /**
+     * Get the maximum number of records waiting to be written by the
+     * writer threads (default 1024).
+     */
+    public int getWriterQueue() {
+	return getIntParam("writerqueue", 1024);
+    }
+
+    /**
+     * Get the value of a numeric parameter, or the given default if
+     * the parameter is not set or is not a valid number.
+     */
+    private int getIntParam(String key, int defaultValue) {
+	String val = getParam(key);
+	if (val == null || val.isEmpty())
+	    return defaultValue;
+	try {
+	    return Integer.parseInt(val.trim());
+	} catch (NumberFormatException e) {
+	    logger.error("Parameter " + key + " must be a number, not '" + val + "'; using " + defaultValue);
+	    return defaultValue;
+	}
+    }
 }
@@ -0,0 +1,416 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.FileVisitor;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Finds the files in a directory tree and hands them to a visitor.
+ * With a single thread this is just {@link Files#walkFileTree}. With
+ * more, subdirectories are listed concurrently, which helps when
+ * listing a directory takes long (e.g. on network file systems), and
+ * files are handed over as soon as they are found rather than after
+ * the whole tree has been listed.
+ * <p>
+ * Files may be visited in any order, unless sorted order is
+ * requested: then the tree is visited depth first, with the entries
+ * of each directory in order of name, while later directories are
+ * still listed ahead in the background.
+ * <p>
+ * Either way all calls to the visitor are made from the thread that
+ * calls {@link #scan}, and only {@link FileVisitor#visitFile} and
+ * {@link FileVisitor#visitFileFailed} are called; symbolic links
+ * below the starting directory are not followed.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+public class DirectoryScanner {
+    private static final Logger logger = Logger.getLogger(DirectoryScanner.class);
+
+    /**
+     * How many files may be found but not yet visited when visiting
+     * in any order.
+     */
+    private static final int QUEUE_SIZE = 4096;
+
+    /**
+     * How many directories per thread may be listed ahead of the
+     * visitor when visiting in sorted order.
+     */
+    private static final int LISTINGS_AHEAD = 64;
+
+    /** Marks the end of the files found in unordered mode. */
+    private static final Found END = new Found(null, null, null);
+
+    private final int threads;
+    private final boolean sorted;
+
+    /**
+     * A file found in the tree, or a file or directory that failed.
+     * The error is an IOException if the file or directory could not
+     * be read, or any other failure of the listing, which ends the
+     * scan.
+     */
+    private static final class Found {
+	final Path file;
+	final BasicFileAttributes attrs;
+	final Throwable error;
+
+	Found(Path file, BasicFileAttributes attrs, Throwable error) {
+	    this.file = file;
+	    this.attrs = attrs;
+	    this.error = error;
+	}
+    }
+
+    /** Orders paths by file name. */
+    private static final Comparator<Path> BY_NAME = new Comparator<Path>() {
+	@Override
+	public int compare(Path a, Path b) {
+	    return String.valueOf(a.getFileName()).compareTo(String.valueOf(b.getFileName()));
+	}
+    };
+
+    /** Orders files found by file name. */
+    private static final Comparator<Found> FOUND_BY_NAME = new Comparator<Found>() {
+	@Override
+	public int compare(Found a, Found b) {
+	    return BY_NAME.compare(a.file, b.file);
+	}
+    };
+
+    /**
+     * Create a scanner.
+     *
+     * @param threads number of threads listing directories
+     * @param sorted true to visit files in a deterministic order
+     */
+    public DirectoryScanner(int threads, boolean sorted) {
+	this.threads = Math.max(1, threads);
+	this.sorted = sorted;
+    }
+
+    /**
+     * Visit all files in a directory tree. Stops early if the visitor
+     * returns {@link FileVisitResult#TERMINATE}.
+     *
+     * @param start starting directory (or a single file)
+     * @param visitor visitor of the files found
+     */
+    public void scan(Path start, FileVisitor<Path> visitor) throws IOException {
+	if (threads == 1 && !sorted) {
+	    Files.walkFileTree(start, visitor);
+	    return;
+	}
+	BasicFileAttributes attrs = Files.readAttributes(start, BasicFileAttributes.class);
+	if (!attrs.isDirectory()) {
+	    visitor.visitFile(start, attrs);
+	    return;
+	}
+
+	ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+	    private final AtomicInteger count = new AtomicInteger();
+
+	    @Override
+	    public Thread newThread(Runnable r) {
+		Thread t = new Thread(r, "scanner-" + count.getAndIncrement());
+		t.setDaemon(true);
+		return t;
+	    }
+	});
+	try {
+	    if (sorted)
+		scanSorted(start, visitor, pool);
+	    else
+		scanUnordered(start, visitor, pool);
+	} catch (InterruptedException e) {
+	    logger.error("Interrupted while scanning " + start, e);
+	    Thread.currentThread().interrupt();
+	} finally {
+	    pool.shutdownNow();
+	}
+    }
+
+    /**
+     * Visit a file found in the tree.
+     *
+     * @return false if the visitor asks to stop
+     */
+    private static boolean visit(FileVisitor<Path> visitor, Found f) throws IOException {
+	FileVisitResult r;
+	if (f.error == null)
+	    r = visitor.visitFile(f.file, f.attrs);
+	else if (f.error instanceof IOException)
+	    r = visitor.visitFileFailed(f.file, (IOException)f.error);
+	else
+	    throw rethrow(f.error);
+	return r != FileVisitResult.TERMINATE;
+    }
+
+    /**
+     * Rethrow a failure of a listing thread in the visiting thread:
+     * unchecked exceptions and errors as they are, anything else
+     * wrapped in an IOException.
+     */
+    private static IOException rethrow(Throwable t) {
+	if (t instanceof RuntimeException)
+	    throw (RuntimeException)t;
+	if (t instanceof Error)
+	    throw (Error)t;
+	return new IOException("Cannot list directory", t);
+    }
+
+    /**
+     * List the entries of a directory, reading the attributes of each.
+     *
+     * @param dir the directory
+     * @param files files (and entries that failed) are added here
+     * @param dirs subdirectories are added here
+     */
+    private static void list(Path dir, List<Found> files, List<Path> dirs) {
+	try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+	    for (Path p : ds) {
+		try {
+		    BasicFileAttributes attrs = Files.readAttributes
+			(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		    if (attrs.isDirectory())
+			dirs.add(p);
+		    else
+			files.add(new Found(p, attrs, null));
+		} catch (IOException e) {
+		    files.add(new Found(p, null, e));
+		}
+	    }
+	} catch (IOException e) {
+	    files.add(new Found(dir, null, e));
+	} catch (DirectoryIteratorException e) {
+	    files.add(new Found(dir, null, e.getCause()));
+	}
+    }
+
+    /**
+     * Visit files in any order, as they are found. Each directory is
+     * listed by a separate task, which hands the files over through a
+     * bounded queue; the last task to finish marks the end.
+     */
+    private void scanUnordered(Path start, FileVisitor<Path> visitor, final ExecutorService pool)
+	throws IOException, InterruptedException {
+	final BlockingQueue<Found> queue = new LinkedBlockingQueue<>(QUEUE_SIZE);
+	final AtomicInteger pending = new AtomicInteger(1);
+
+	class Lister implements Runnable {
+	    private final Path dir;
+
+	    Lister(Path dir) {
+		this.dir = dir;
+	    }
+
+	    @Override
+	    public void run() {
+		try {
+		    List<Found> files = new ArrayList<>();
+		    List<Path> dirs = new ArrayList<>();
+		    list(dir, files, dirs);
+		    for (Path d : dirs) {
+			pending.incrementAndGet();
+			try {
+			    pool.execute(new Lister(d));
+			} catch (RejectedExecutionException e) {
+			    pending.decrementAndGet();
+			    throw e;
+			}
+		    }
+		    for (Found f : files)
+			queue.put(f);
+		} catch (InterruptedException e) {
+		    // The scan has been cut short.
+		    Thread.currentThread().interrupt();
+		} catch (RejectedExecutionException e) {
+		    // Likewise.
+		} catch (RuntimeException | Error e) {
+		    post(new Found(dir, null, e));
+		} finally {
+		    // Whatever happened, the visitor must not wait forever.
+		    if (pending.decrementAndGet() == 0)
+			post(END);
+		}
+	    }
+
+	    private void post(Found f) {
+		try {
+		    queue.put(f);
+		} catch (InterruptedException e) {
+		    Thread.currentThread().interrupt();
+		}
+	    }
+	}
+
+	pool.execute(new Lister(start));
+	for (Found f = queue.take(); f != END; f = queue.take()) {
+	    if (!visit(visitor, f))
+		return;
+	}
+    }
+
+    /**
+     * The sorted entries of a directory: files found (see
+     * {@link Found}) and subdirectories (see {@link Subdir}).
+     */
+    private static final class Listing {
+	final List<Object> entries = new ArrayList<>();
+    }
+
+    /** A subdirectory in a listing. */
+    private static final class Subdir {
+	final Path dir;
+	/** Its own listing, or null if that has not been started. */
+	Future<Listing> listing;
+
+	Subdir(Path dir) {
+	    this.dir = dir;
+	}
+    }
+
+    /**
+     * Lists a directory for the sorted scan, and starts listing its
+     * subdirectories in the background as long as not too many
+     * listings are waiting for the visitor.
+     */
+    private static final class SortedLister implements Callable<Listing> {
+	private final Path dir;
+	private final ExecutorService pool;
+	/** Permits for listings started but not yet taken by the visitor. */
+	private final Semaphore ahead;
+
+	SortedLister(Path dir, ExecutorService pool, Semaphore ahead) {
+	    this.dir = dir;
+	    this.pool = pool;
+	    this.ahead = ahead;
+	}
+
+	@Override
+	public Listing call() {
+	    List<Found> files = new ArrayList<>();
+	    List<Path> dirs = new ArrayList<>();
+	    list(dir, files, dirs);
+	    Collections.sort(dirs, BY_NAME);
+	    Collections.sort(files, FOUND_BY_NAME);
+
+	    // Merge files and subdirectories in order.
+	    Listing l = new Listing();
+	    int d = 0, i = 0;
+	    while (d < dirs.size() || i < files.size()) {
+		if (i == files.size()
+		    || (d < dirs.size() && BY_NAME.compare(dirs.get(d), files.get(i).file) < 0)) {
+		    Subdir s = new Subdir(dirs.get(d++));
+		    start(s, pool, ahead);
+		    l.entries.add(s);
+		} else {
+		    l.entries.add(files.get(i++));
+		}
+	    }
+	    return l;
+	}
+
+	/**
+	 * Start listing a subdirectory in the background, unless too
+	 * many listings are waiting already.
+	 */
+	static void start(Subdir s, ExecutorService pool, Semaphore ahead) {
+	    if (s.listing == null && ahead.tryAcquire())
+		s.listing = pool.submit(new SortedLister(s.dir, pool, ahead));
+	}
+    }
+
+    /**
+     * Visit files depth first in order of name. Directories are
+     * listed ahead of the visitor in parallel, up to a limit; a
+     * directory that has not been listed by the time the visitor
+     * gets to it is listed by the visitor's thread.
+     */
+    private void scanSorted(Path start, FileVisitor<Path> visitor, ExecutorService pool)
+	throws IOException, InterruptedException {
+	Semaphore ahead = new Semaphore(LISTINGS_AHEAD * threads);
+	Subdir root = new Subdir(start);
+	SortedLister.start(root, pool, ahead);
+
+	Deque<Iterator<Object>> stack = new ArrayDeque<>();
+	stack.push(Collections.<Object>singletonList(root).iterator());
+	while (!stack.isEmpty()) {
+	    Iterator<Object> it = stack.peek();
+	    if (!it.hasNext()) {
+		stack.pop();
+		continue;
+	    }
+	    Object o = it.next();
+	    if (o instanceof Found) {
+		if (!visit(visitor, (Found)o))
+		    return;
+		continue;
+	    }
+
+	    Subdir s = (Subdir)o;
+	    Listing l;
+	    if (s.listing == null) {
+		l = new SortedLister(s.dir, pool, ahead).call();
+	    } else {
+		try {
+		    l = s.listing.get();
+		} catch (ExecutionException e) {
+		    throw rethrow(e.getCause());
+		}
+		ahead.release();
+	    }
+	    // Subdirectories that could not be started before may be now.
+	    for (Object e : l.entries) {
+		if (e instanceof Subdir)
+		    SortedLister.start((Subdir)e, pool, ahead);
+	    }
+	    stack.push(l.entries.iterator());
+	}
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper;
+
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.xml.xpath.XPathExpressionException;
+
+/**
+ * Selects the mappings that can apply to a record, based on its root
+ * element and (for CMDI) its profile. Many mappings of a mapfile
+ * covering several formats or profiles can never match a given
+ * record, e.g. "/olac:olac/dc:title" on a record whose root element
+ * is cmd:CMD, or mappings declared for other profiles only. The
+ * subset of mappings for each combination of root element and
+ * profile is computed once and then reused.
+ * <p>
+ * Mappings are skipped only when they cannot match: location paths
+ * that start at a different root element, and mappings declared
+ * for other profiles when the profile of the record is one of the
+ * declared ones. Records of unknown profiles get all the mappings
+ * that their root element allows.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+final class DispatchIndex {
+    private static final Logger logger = Logger.getLogger(DispatchIndex.class);
+
+    /** All mappings of each facet, in order. */
+    private final Map<String, List<Mapping>> mappings;
+
+    /**
+     * Expression that selects the profile of a record, or null if
+     * profiles are not used.
+     */
+    private final CompiledXpath profilePath;
+
+    /** Profiles declared by any mapping. */
+    private final Set<String> profiles;
+
+    /**
+     * Root element required by each mapping that is a location path
+     * starting with a named root element.
+     */
+    private final Map<Mapping, String> roots;
+
+    /** Subsets of mappings already computed, by dispatch key. */
+    private final ConcurrentMap<String, Map<String, List<Mapping>>> subsets;
+
+    /**
+     * Create an index of the given mappings.
+     *
+     * @param mappings mappings of each facet, in order
+     * @param nsContext namespace bindings used in the mappings
+     * @param profilePath expression that selects the profile of a
+     * record, or null if profiles are not used
+     */
+    DispatchIndex(Map<String, List<Mapping>> mappings, NSContext nsContext,
+		  CompiledXpath profilePath) {
+	this.mappings = mappings;
+	this.subsets = new ConcurrentHashMap<>();
+	this.roots = new HashMap<>();
+	this.profiles = new HashSet<>();
+
+	for (List<Mapping> mapList : mappings.values()) {
+	    for (Mapping m : mapList) {
+		if (m.getProfiles() != null)
+		    profiles.addAll(m.getProfiles());
+		if (m instanceof XpathMapping) {
+		    String root = requiredRoot(((XpathMapping)m).getExpression(), nsContext);
+		    if (root != null)
+			roots.put(m, root);
+		}
+	    }
+	}
+	if (profilePath == null && !profiles.isEmpty())
+	    logger.warn("Mappings are declared for specific profiles, but the mapfile does not"
+			+ " say where to find the profile of a record; ignoring the declarations");
+	this.profilePath = profiles.isEmpty() ? null : profilePath;
+    }
+
+    /**
+     * Find the root element that an expression requires, if it is a
+     * location path starting with a named element on the child axis.
+     * Such a path selects nothing in records with another root
+     * element.
+     *
+     * @return expanded name of the root element, or null if the
+     * expression can match any record
+     */
+    private static String requiredRoot(String expression, NSContext nsContext) {
+	LocationPath path = LocationPath.parse(expression);
+	if (path == null)
+	    return null;
+	LocationPath.Step first = path.getSteps().get(0);
+	if (first.descendant || first.kind != LocationPath.Kind.ELEMENT
+	    || first.localName.equals("*"))
+	    return null;
+	// As in JAXP, an unprefixed name is in no namespace.
+	String uri = first.prefix.isEmpty() ? "" : nsContext.getNamespaceURI(first.prefix);
+	return Record.expandedName(uri, first.localName);
+    }
+
+    /**
+     * Select the mappings that can apply to a record.
+     *
+     * @param rec parsed record
+     * @return mappings of each facet, in the same order as all
+     * mappings
+     */
+    Map<String, List<Mapping>> select(Record rec) {
+	String root = rec.getRootName();
+	String profile = null;
+	if (profilePath != null) {
+	    try {
+		profile = profilePath.evaluate(rec).trim();
+	    } catch (XPathExpressionException e) {
+		logger.debug("Cannot find profile of " + rec.getSource() + ": " + e.getMessage());
+	    }
+	    if (!profiles.contains(profile))
+		profile = null;
+	}
+	if (root == null && profile == null)
+	    return mappings;
+
+	String key = ((root == null) ? "" : root) + " " + ((profile == null) ? "" : profile);
+	Map<String, List<Mapping>> subset = subsets.get(key);
+	if (subset == null) {
+	    subset = computeSubset(root, profile);
+	    subsets.putIfAbsent(key, subset);
+	}
+	return subset;
+    }
+
+    /**
+     * Compute the mappings that can apply to records with the given
+     * root element and profile.
+     *
+     * @param root expanded name of the root element, or null if not
+     * known
+     * @param profile a declared profile, or null if the profile is
+     * unknown
+     */
+    private Map<String, List<Mapping>> computeSubset(String root, String profile) {
+	Map<String, List<Mapping>> subset = new LinkedHashMap<>();
+	int skipped = 0;
+	for (Map.Entry<String, List<Mapping>> me : mappings.entrySet()) {
+	    List<Mapping> mapList = new ArrayList<>();
+	    for (Mapping m : me.getValue()) {
+		String required = roots.get(m);
+		if ((root != null && required != null && !required.equals(root))
+		    || (profile != null && m.getProfiles() != null && !m.getProfiles().contains(profile)))
+		    skipped++;
+		else
+		    mapList.add(m);
+	    }
+	    subset.put(me.getKey(), mapList);
+	}
+	logger.debug("Skipping " + skipped + " mappings for root element " + root
+		     + ((profile == null) ? "" : " and profile " + profile));
+	return subset;
+    }
+}
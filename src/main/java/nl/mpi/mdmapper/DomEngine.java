@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper;
+
+import nl.mpi.mdmapper.parser.Parsers;
+
+import org.apache.log4j.Logger;
+
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import org.xml.sax.SAXException;
+
+/**
+ * The default engine: records are parsed into DOM trees, and
+ * expressions are evaluated with the standard JAXP XPath API.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+class DomEngine extends Engine {
+    private static final Logger logger = Logger.getLogger(DomEngine.class);
+
+    /**
+     * JAXP factories and XPath objects are not thread-safe, so each
+     * thread gets its own XPath object. The factory is only used
+     * while holding its lock.
+     */
+    private final XPathFactory xpathFactory;
+    private final ThreadLocal<XPath> xpath;
+
+    /** Parsers of records, one per thread. */
+    private final Parsers parsers;
+
+    /** Shared context paths, and the number of each. */
+    private final Map<String, DomContext> contexts;
+
+    /** Element names to look for in records, or null. */
+    private ElementNames names;
+
+    /**
+     * Create a new DOM engine.
+     *
+     * @param nsContext namespace bindings used in the expressions
+     * @param parsers parsers of records; they must be namespace aware,
+     * since otherwise Saxon cannot match prefixed attribute names such
+     * as @xsi:type
+     */
+    DomEngine(final NSContext nsContext, Parsers parsers) {
+	xpathFactory = XPathFactory.newInstance();
+	contexts = new HashMap<>();
+	this.parsers = parsers;
+	xpath = new ThreadLocal<XPath>() {
+	    @Override
+	    protected XPath initialValue() {
+		XPath xp;
+		synchronized (xpathFactory) {
+		    xp = xpathFactory.newXPath();
+		}
+		xp.setNamespaceContext(nsContext);
+		return xp;
+	    }
+	};
+    }
+
+    @Override
+    void collectElementNames(ElementNames names) {
+	this.names = names;
+    }
+
+    @Override
+    Record parse(RecordInput input) throws IOException, SAXException {
+	Document doc = load(input);
+	Record rec = new Record(input.getSource(), doc);
+	if (names != null)
+	    rec.setElementNames(findElementNames(doc, names));
+	return rec;
+    }
+
+    /**
+     * Find which of the given element names occur in a DOM tree.
+     */
+    static long[] findElementNames(Document doc, ElementNames names) {
+	long[] set = names.newSet();
+	Node root = doc.getDocumentElement();
+	Node n = root;
+	while (n != null) {
+	    if (n.getNodeType() == Node.ELEMENT_NODE) {
+		int name = names.get(n.getNamespaceURI(), n.getLocalName());
+		if (name >= 0)
+		    ElementNames.add(set, name);
+		if (n.getFirstChild() != null) {
+		    n = n.getFirstChild();
+		    continue;
+		}
+	    }
+	    // Next node in document order, outside the subtree of n.
+	    while (n != root && n.getNextSibling() == null)
+		n = n.getParentNode();
+	    n = (n == root) ? null : n.getNextSibling();
+	}
+	return set;
+    }
+
+    /**
+     * Parse the input of a record into a DOM tree.
+     */
+    Document load(RecordInput input) throws IOException, SAXException {
+	return parsers.getDocumentBuilder().parse(input.open());
+    }
+
+    @Override
+    CompiledXpath compile(String expression) throws XPathExpressionException {
+	return new DomXpath(compileLocal(expression));
+    }
+
+    @Override
+    CompiledXpath compile(String expression, String context, String relative)
+	throws XPathExpressionException {
+	DomContext c = contexts.get(context);
+	if (c == null) {
+	    c = new DomContext(contexts.size(), compileLocal(context));
+	    contexts.put(context, c);
+	}
+	return new RelativeXpath(c, compileLocal(relative));
+    }
+
+    /**
+     * Compile an expression. JAXP expressions are not thread-safe
+     * either, so each thread compiles its own copy on first use.
+     */
+    private ThreadLocal<XPathExpression> compileLocal(final String expression)
+	throws XPathExpressionException {
+	ThreadLocal<XPathExpression> compiled = new ThreadLocal<XPathExpression>() {
+	    @Override
+	    protected XPathExpression initialValue() {
+		try {
+		    return xpath.get().compile(expression);
+		} catch (XPathExpressionException e) {
+		    // Cannot happen, the same expression compiled fine before.
+		    throw new IllegalStateException(e);
+		}
+	    }
+	};
+	compiled.set(xpath.get().compile(expression));
+	return compiled;
+    }
+
+    private static Document getDocument(Record rec) throws XPathExpressionException {
+	try {
+	    return rec.getDocument();
+	} catch (IOException | SAXException e) {
+	    throw new XPathExpressionException(e);
+	}
+    }
+
+    /**
+     * A JAXP expression, evaluated on the whole document.
+     */
+    private static class DomXpath implements CompiledXpath {
+	private final ThreadLocal<XPathExpression> compiled;
+
+	DomXpath(ThreadLocal<XPathExpression> compiled) {
+	    this.compiled = compiled;
+	}
+
+	@Override
+	public String evaluate(Record rec) throws XPathExpressionException {
+	    return compiled.get().evaluate(getDocument(rec));
+	}
+    }
+
+    /**
+     * A context path shared by several expressions. The nodes it
+     * selects are found once per record.
+     */
+    private static class DomContext {
+	private final int number;
+	private final ThreadLocal<XPathExpression> compiled;
+
+	DomContext(int number, ThreadLocal<XPathExpression> compiled) {
+	    this.number = number;
+	    this.compiled = compiled;
+	}
+
+	NodeList resolve(Record rec) throws XPathExpressionException {
+	    NodeList nodes = (NodeList)rec.getContext(number);
+	    if (nodes == null) {
+		nodes = (NodeList)compiled.get().evaluate(getDocument(rec), XPathConstants.NODESET);
+		rec.setContext(number, nodes);
+	    }
+	    return nodes;
+	}
+    }
+
+    /**
+     * The rest of a location path whose first steps are a shared
+     * context. The first node it selects is the first node selected
+     * from the first context node that has any.
+     */
+    private static class RelativeXpath implements CompiledXpath {
+	private final DomContext context;
+	private final ThreadLocal<XPathExpression> compiled;
+
+	RelativeXpath(DomContext context, ThreadLocal<XPathExpression> compiled) {
+	    this.context = context;
+	    this.compiled = compiled;
+	}
+
+	@Override
+	public String evaluate(Record rec) throws XPathExpressionException {
+	    NodeList nodes = context.resolve(rec);
+	    XPathExpression expr = compiled.get();
+	    for (int i=0; i<nodes.getLength(); i++) {
+		NodeList selected = (NodeList)expr.evaluate(nodes.item(i), XPathConstants.NODESET);
+		if (selected.getLength() > 0)
+		    return stringValue(selected.item(0));
+	    }
+	    return "";
+	}
+
+	/**
+	 * Get the XPath string value of a node, as evaluating the path
+	 * as a string would give.
+	 */
+	private static String stringValue(Node node) {
+	    if (node.getNodeType() == Node.DOCUMENT_NODE)
+		node = ((Document)node).getDocumentElement();
+	    if (!isText(node)) {
+		String value = node.getTextContent();
+		return (value == null) ? "" : value;
+	    }
+	    // In XPath adjacent text nodes (e.g. either side of a CDATA
+	    // section) are one node, but in DOM they are not.
+	    while (isText(node.getPreviousSibling()))
+		node = node.getPreviousSibling();
+	    StringBuilder sb = new StringBuilder();
+	    for (; isText(node); node = node.getNextSibling())
+		sb.append(node.getNodeValue());
+	    return sb.toString();
+	}
+
+	private static boolean isText(Node node) {
+	    return node != null && (node.getNodeType() == Node.TEXT_NODE
+				    || node.getNodeType() == Node.CDATA_SECTION_NODE);
+	}
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The element names that mappings require, each numbered so that
+ * sets of them can be represented as bitsets (arrays of longs). While
+ * a record is parsed, the engine notes which of the names occur in
+ * it; a mapping that requires a name the record does not contain
+ * cannot match, and is not evaluated at all.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+final class ElementNames {
+    /** Number of each name, by namespace URI and local name. */
+    private final Map<String, Map<String, Integer>> numbers;
+
+    private int size;
+
+    ElementNames() {
+	numbers = new HashMap<>();
+	size = 0;
+    }
+
+    /**
+     * Add a name, unless it is already known.
+     *
+     * @param uri namespace URI; empty for no namespace
+     * @param localName local name
+     * @return number of the name
+     */
+    int add(String uri, String localName) {
+	Map<String, Integer> m = numbers.get(uri);
+	if (m == null) {
+	    m = new HashMap<>();
+	    numbers.put(uri, m);
+	}
+	Integer n = m.get(localName);
+	if (n == null) {
+	    n = size++;
+	    m.put(localName, n);
+	}
+	return n;
+    }
+
+    /**
+     * Get the number of a name.
+     *
+     * @param uri namespace URI; null or empty for no namespace
+     * @param localName local name
+     * @return number of the name, or -1 if it is not known
+     */
+    int get(String uri, String localName) {
+	Map<String, Integer> m = numbers.get((uri == null) ? "" : uri);
+	if (m == null)
+	    return -1;
+	Integer n = m.get(localName);
+	return (n == null) ? -1 : n;
+    }
+
+    /** Get all known names, by namespace URI and local name. */
+    Map<String, Map<String, Integer>> getNumbers() {
+	return numbers;
+    }
+
+    /** Get the number of known names. */
+    int size() {
+	return size;
+    }
+
+    /** Create an empty set of names. */
+    long[] newSet() {
+	return new long[(size + 63) / 64];
+    }
+
+    /** Add a name to a set. */
+    static void add(long[] set, int n) {
+	set[n >>> 6] |= 1L << n;
+    }
+
+    /**
+     * Check whether a set contains all the names of another one of
+     * the same size.
+     */
+    static boolean containsAll(long[] set, long[] required) {
+	for (int i=0; i<required.length; i++) {
+	    if ((required[i] & ~set[i]) != 0)
+		return false;
+	}
+	return true;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import javax.xml.xpath.XPathExpressionException;
+import org.xml.sax.SAXException;
+
+/**
+ * An evaluation engine parses input files into records and compiles
+ * the XPath expressions of a mapping table so that they can be
+ * evaluated against those records. A single engine is shared by all
+ * threads, so implementations must be thread-safe.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+abstract class Engine {
+    /**
+     * Parse an input file.
+     *
+     * @param file input file
+     * @return the parsed record
+     */
+    Record parse(Path file) throws IOException, SAXException {
+	return parse(new RecordInput(file));
+    }
+
+    /**
+     * Parse the input of a record.
+     *
+     * @param input input of the record
+     * @return the parsed record
+     */
+    abstract Record parse(RecordInput input) throws IOException, SAXException;
+
+    /**
+     * Compile an XPath expression. Errors in the expression are
+     * reported here rather than when it is evaluated.
+     *
+     * @param expression source text of the expression
+     * @return compiled expression, usable from any thread
+     */
+    abstract CompiledXpath compile(String expression) throws XPathExpressionException;
+
+    /**
+     * Compile a location path whose first steps are shared with other
+     * expressions. Engines that can resolve the shared context once
+     * per record, and evaluate the rest of the path relative to each
+     * node it selects, override this; by default the expression is
+     * compiled as a whole.
+     *
+     * @param expression source text of the whole expression
+     * @param context the shared first steps, an absolute location path
+     * selecting nodes in disjoint subtrees
+     * @param relative the rest of the path, relative to a context node
+     * @return compiled expression, usable from any thread
+     */
+    CompiledXpath compile(String expression, String context, String relative)
+	throws XPathExpressionException {
+	return compile(expression);
+    }
+
+    /**
+     * Called once all mappings have been read, so that the engine can
+     * prepare anything that depends on the mapping table as a whole.
+     * The default implementation does nothing.
+     *
+     * @param mappings the mappings of each facet, in order
+     */
+    void prepare(Map<String, List<Mapping>> mappings) {
+    }
+
+    /**
+     * Ask the engine to note which of the given element names occur
+     * in each record it parses (see {@link Record#getElementNames()}).
+     * Engines that cannot find them cheaply ignore this, which is also
+     * what the default implementation does.
+     *
+     * @param names element names required by mappings
+     */
+    void collectElementNames(ElementNames names) {
+    }
+}
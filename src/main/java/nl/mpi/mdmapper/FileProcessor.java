@@ -28,10 +28,23 @@ import java.nio.file.FileVisitResult;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.Path;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.xml.stream.XMLStreamException;
 import org.xml.sax.SAXException;
 
 /**
- * Process a single input file.
+ * Process input files. By default each file is processed as soon as
+ * it is visited; if more than one thread is requested, files are
+ * instead handed to a pool of worker threads, and the caller must
+ * invoke {@link #finish()} once all files have been visited. If a
+ * manifest is given, files that have not changed since the previous
+ * run are skipped.
  *
  * @author Lari Lampen (MPI-PL)
  */
@@ -41,49 +54,290 @@ public class FileProcessor implements FileVisitor<Path> {
     private MappingTable mappings;
     private Output[] outputs;
 
+    /** Worker threads, or null if files are processed sequentially. */
+    private ThreadPoolExecutor executor;
+
+    /** Manifest of the previous run, or null to process all files. */
+    private Manifest manifest;
+
+    /** Whether input files are OAI-PMH ListRecords responses. */
+    private boolean listRecords;
+
+    /** How many files were skipped as unchanged. */
+    private int numSkipped;
+
     /**
-     * Create a new FileProcessor object.
+     * Time the directory walk spends between calls to this object,
+     * i.e. reading directories and file attributes.
+     */
+    private final LatencyHistogram walkTimes = new LatencyHistogram();
+
+    /** When the previous call from the directory walk returned. */
+    private long lastReturn = System.nanoTime();
+
+    /**
+     * Create a new FileProcessor object that processes files
+     * sequentially.
      *
      * @param mappings table of semantic mappings
      * @param outputs list of output destinations
      */
     public FileProcessor(MappingTable mappings, Output[] outputs) {
+	this(mappings, outputs, 1);
+    }
+
+    /**
+     * Create a new FileProcessor object.
+     *
+     * @param mappings table of semantic mappings
+     * @param outputs list of output destinations
+     * @param threads number of worker threads; 1 means files are
+     * processed sequentially in the calling thread
+     */
+    public FileProcessor(MappingTable mappings, Output[] outputs, int threads) {
+	this(mappings, outputs, threads, null);
+    }
+
+    /**
+     * Create a new FileProcessor object that only processes new and
+     * changed files.
+     *
+     * @param mappings table of semantic mappings
+     * @param outputs list of output destinations
+     * @param threads number of worker threads; 1 means files are
+     * processed sequentially in the calling thread
+     * @param manifest manifest of the previous run, which is updated
+     * as files are processed; null means all files are processed
+     */
+    public FileProcessor(MappingTable mappings, Output[] outputs, int threads, Manifest manifest) {
 	this.mappings = mappings;
+	this.manifest = manifest;
 	this.outputs = outputs;
+	if (threads > 1) {
+	    // The queue is bounded so that the directory walk cannot
+	    // run arbitrarily far ahead of processing. When it is full,
+	    // the walking thread processes the file itself.
+	    executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+					      new ArrayBlockingQueue<Runnable>(4 * threads),
+					      new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+    }
+
+    /**
+     * Set whether input files are OAI-PMH ListRecords responses (or
+     * other files of OAI-PMH records) rather than single records.
+     * The metadata of each record in such a file is mapped as a
+     * record of its own, named by its OAI identifier.
+     */
+    public void setListRecords(boolean listRecords) {
+	this.listRecords = listRecords;
     }
 
     @Override
-    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+    public FileVisitResult visitFile(final Path file, BasicFileAttributes attrs) throws IOException {
+	enter();
 	String fileName = file.toString();
-	if (fileName.endsWith(".xml")) {
-	    logger.info("Processing: " + file);
-	    try {
-		FacetList fl = mappings.applyMappings(file);
-		for (Output o : outputs) {
-		    o.save(fl);
-		}
-	    } catch (SAXException e) {
-		logger.error(e.getMessage(), e);
+	boolean archive = ArchiveReader.isArchive(fileName);
+	if (fileName.endsWith(".xml") || archive) {
+	    final Manifest.Entry entry = (manifest == null) ? null : manifest.check(file, attrs);
+	    if (manifest != null && entry == null) {
+		logger.debug("Unchanged: " + file);
+		numSkipped++;
+	    } else if (listRecords || archive) {
+		processRecords(file, archive, entry);
+	    } else {
+		execute(new Runnable() {
+		    @Override
+		    public void run() {
+			process(file, entry);
+		    }
+		});
 	    }
 	} else {
 	    logger.debug("Skip: "+file);
 	}
 
+	return leave();
+    }
+
+    /**
+     * Run a task on a worker thread, or in this thread if files are
+     * processed sequentially.
+     */
+    private void execute(Runnable task) {
+	if (executor == null)
+	    task.run();
+	else
+	    executor.execute(task);
+    }
+
+    private void enter() {
+	walkTimes.recordSince(lastReturn);
+    }
+
+    private FileVisitResult leave() {
+	lastReturn = System.nanoTime();
 	return FileVisitResult.CONTINUE;
     }
 
+    /**
+     * Time spent by the directory walk itself, as opposed to
+     * processing files.
+     */
+    public LatencyHistogram getWalkTimes() {
+	return walkTimes;
+    }
+
+    /**
+     * Map a single file and save the result in all outputs.
+     *
+     * @param file input file
+     * @return true if the file was processed successfully
+     */
+    public boolean process(Path file) {
+	return process(new RecordInput(file));
+    }
+
+    /**
+     * Map a single record and save the result in all outputs.
+     *
+     * @param input input of the record
+     * @return true if the record was processed successfully
+     */
+    private boolean process(RecordInput input) {
+	logger.info("Processing: " + input.getSource());
+	try {
+	    FacetList fl = mappings.applyMappings(input);
+	    for (Output o : outputs) {
+		o.save(fl);
+	    }
+	    return true;
+	} catch (IOException | SAXException e) {
+	    logger.error(e.getMessage(), e);
+	    return false;
+	} catch (RuntimeException e) {
+	    // E.g. from an output; the file still counts as failed, so
+	    // that its earlier output is kept.
+	    logger.error("Error processing " + input.getSource(), e);
+	    return false;
+	}
+    }
+
+    /**
+     * Read a file of several records (OAI-PMH records, or an archive)
+     * in this thread, handing each record to be mapped as soon as it
+     * has been read. Once all of them have been processed, the file
+     * is recorded in the manifest with the sources of its records; if
+     * any of them failed, the output of earlier runs is kept as well,
+     * and the whole file is tried again in the next run.
+     */
+    private void processRecords(final Path file, boolean archive, final Manifest.Entry entry) {
+	logger.info("Reading records: " + file);
+	final List<String> sources = new ArrayList<>();
+	// The reading counts as one task, so that the file is not
+	// finished before all of its records have been read.
+	final AtomicInteger pending = new AtomicInteger(1);
+	final AtomicBoolean failed = new AtomicBoolean();
+	final Runnable done = new Runnable() {
+	    @Override
+	    public void run() {
+		if (pending.decrementAndGet() != 0 || entry == null)
+		    return;
+		if (failed.get())
+		    manifest.putFailed(entry.withSources(sources));
+		else
+		    manifest.put(entry.withSources(sources));
+	    }
+	};
+	RecordInput.Handler handler = new RecordInput.Handler() {
+	    @Override
+	    public void record(final RecordInput input) {
+		sources.add(input.getSource());
+		pending.incrementAndGet();
+		execute(new Runnable() {
+		    @Override
+		    public void run() {
+			try {
+			    if (!process(input))
+				failed.set(true);
+			} finally {
+			    done.run();
+			}
+		    }
+		});
+	    }
+	};
+	try {
+	    if (archive)
+		ArchiveReader.read(file, listRecords, handler);
+	    else
+		ListRecordsReader.read(file, handler);
+	} catch (IOException | XMLStreamException e) {
+	    logger.error("Error reading records from " + file, e);
+	    failed.set(true);
+	}
+	done.run();
+    }
+
+    /**
+     * Process a file and record it in the manifest. A file that fails
+     * keeps the output of its previous run, and is tried again in the
+     * next run.
+     */
+    private void process(Path file, Manifest.Entry entry) {
+	boolean ok = process(file);
+	if (entry == null)
+	    return;
+	if (ok)
+	    manifest.put(entry);
+	else
+	    manifest.putFailed(entry);
+    }
+
+    /**
+     * Get the number of files that were skipped because they have not
+     * changed since the previous run.
+     */
+    public int getNumSkipped() {
+	return numSkipped;
+    }
+
+    /**
+     * Wait until all files handed to worker threads have been
+     * processed. Must be called after the last file has been visited.
+     */
+    public void finish() {
+	if (executor == null)
+	    return;
+	executor.shutdown();
+	try {
+	    while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+		logger.debug("Waiting for worker threads to finish.");
+	    }
+	} catch (InterruptedException e) {
+	    logger.error("Interrupted while waiting for worker threads", e);
+	    Thread.currentThread().interrupt();
+	}
+    }
+
     @Override
     public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+	enter();
 	logger.error(e);
-	return FileVisitResult.CONTINUE;
+	// The file (or directory) still exists, so its output is kept.
+	if (manifest != null)
+	    manifest.keepFailed(file);
+	return leave();
     }
 
     @Override
     public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-	return FileVisitResult.CONTINUE;
+	enter();
+	return leave();
     }
     @Override
     public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
-	return FileVisitResult.CONTINUE;
+	enter();
+	return leave();
     }
 }
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper;
+
+import org.apache.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.FileVisitor;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A list of input files to process instead of walking a directory
+ * tree, e.g. the records a harvester found to have changed. The list
+ * is read from a file, or from standard input if its name is "-",
+ * one path per line; relative paths are resolved against the input
+ * directory, if there is one. Paths are put in the same form as
+ * those found by walking the input directory, so that the manifest
+ * knows them however they are written. Each file is handed to the
+ * visitor as soon as its line has been read.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+public class InputList {
+    private static final Logger logger = Logger.getLogger(InputList.class);
+
+    private final String list;
+    private final Path base;
+
+    /** Paths of the files listed, as given to the visitor. */
+    private final Set<String> listed = new HashSet<>();
+
+    /**
+     * Create an input list.
+     *
+     * @param list name of the file containing the list, or "-" for
+     * standard input
+     * @param base directory against which relative paths are
+     * resolved, or null to use the working directory
+     */
+    public InputList(String list, Path base) {
+	this.list = list;
+	this.base = base;
+    }
+
+    /**
+     * Read the list and visit each file in it. Empty lines and
+     * repeated paths are ignored, as are files that no longer exist:
+     * in incremental processing their output is removed.
+     *
+     * @param visitor visitor of the files listed
+     */
+    public void scan(FileVisitor<Path> visitor) throws IOException {
+	boolean stdin = list.equals("-");
+	BufferedReader in = stdin
+	    ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+	    : Files.newBufferedReader(Paths.get(list), StandardCharsets.UTF_8);
+	try {
+	    String line;
+	    while ((line = in.readLine()) != null) {
+		line = line.trim();
+		if (line.isEmpty())
+		    continue;
+		Path file = canonical(line);
+		if (!listed.add(file.toString()))
+		    continue;
+
+		BasicFileAttributes attrs;
+		try {
+		    attrs = Files.readAttributes(file, BasicFileAttributes.class);
+		} catch (NoSuchFileException e) {
+		    logger.info("No longer exists: " + file);
+		    continue;
+		} catch (IOException e) {
+		    if (visitor.visitFileFailed(file, e) == FileVisitResult.TERMINATE)
+			return;
+		    continue;
+		}
+		if (visitor.visitFile(file, attrs) == FileVisitResult.TERMINATE)
+		    return;
+	    }
+	} finally {
+	    // Standard input is left open.
+	    if (!stdin)
+		in.close();
+	}
+    }
+
+    /**
+     * Put a listed path in the form a walk of the input directory
+     * would give it: the input directory as given, followed by the
+     * path within it. Paths outside the input directory are made
+     * absolute.
+     */
+    Path canonical(String line) {
+	if (base == null)
+	    return Paths.get(line).normalize();
+	Path file = base.resolve(line).toAbsolutePath().normalize();
+	Path dir = base.toAbsolutePath().normalize();
+	return file.startsWith(dir) ? base.resolve(dir.relativize(file)) : file;
+    }
+
+    /**
+     * Get the paths of the files listed (including those that no
+     * longer exist) after {@link #scan(FileVisitor)}.
+     */
+    public Set<String> getListed() {
+	return Collections.unmodifiableSet(listed);
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations, which many threads can record into
+ * concurrently. Durations are counted in logarithmic buckets, four
+ * per power of two, so percentiles are accurate to within about 25 %.
+ * Like {@link StripedCounter}, each thread records into one of
+ * several stripes (chosen by thread id), so that threads timing the
+ * same thing do not contend for the same bucket.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKETS = 4;
+    private static final int NUM_BUCKETS = 64 * SUB_BUCKETS;
+
+    /**
+     * Distance between the maxima of the stripes, in longs, so that
+     * each sits in its own cache line.
+     */
+    private static final int SPACING = 8;
+
+    /**
+     * Number of stripes; a power of two. There are fewer than in a
+     * StripedCounter, as there is a histogram for every mapping.
+     */
+    private static final int NUM_STRIPES;
+    static {
+	int n = 1;
+	while (n < Runtime.getRuntime().availableProcessors() && n < 16)
+	    n <<= 1;
+	NUM_STRIPES = n;
+    }
+
+    /** Buckets of each stripe in turn. */
+    private final AtomicLongArray buckets;
+    private final StripedCounter total;
+    /** Largest duration of each stripe. */
+    private final AtomicLongArray max;
+
+    /** Create a new, empty histogram. */
+    public LatencyHistogram() {
+	buckets = new AtomicLongArray(NUM_STRIPES * NUM_BUCKETS);
+	total = new StripedCounter();
+	max = new AtomicLongArray(NUM_STRIPES * SPACING);
+    }
+
+    /**
+     * Record a duration.
+     *
+     * @param nanos duration in nanoseconds
+     */
+    public void record(long nanos) {
+	if (nanos < 0)
+	    nanos = 0;
+	int stripe = (int)Thread.currentThread().getId() & (NUM_STRIPES - 1);
+	buckets.incrementAndGet(stripe * NUM_BUCKETS + bucket(nanos));
+	total.add(nanos);
+	int i = stripe * SPACING;
+	long m = max.get(i);
+	while (nanos > m && !max.compareAndSet(i, m, nanos))
+	    m = max.get(i);
+    }
+
+    /** Number of durations in a bucket, over all stripes. */
+    private long count(int bucket) {
+	long n = 0;
+	for (int s=0; s<NUM_STRIPES; s++)
+	    n += buckets.get(s * NUM_BUCKETS + bucket);
+	return n;
+    }
+
+    /** Largest duration recorded. */
+    private long getMax() {
+	long m = 0;
+	for (int s=0; s<NUM_STRIPES; s++)
+	    m = Math.max(m, max.get(s * SPACING));
+	return m;
+    }
+
+    /**
+     * Record the time elapsed since the given start time.
+     *
+     * @param start start time as given by System.nanoTime()
+     */
+    public void recordSince(long start) {
+	record(System.nanoTime() - start);
+    }
+
+    private static int bucket(long nanos) {
+	if (nanos < SUB_BUCKETS)
+	    return (int)nanos;
+	int exp = 63 - Long.numberOfLeadingZeros(nanos);
+	int sub = (int)((nanos >>> (exp - 2)) & (SUB_BUCKETS - 1));
+	return exp * SUB_BUCKETS + sub;
+    }
+
+    /** Largest duration that falls in the given bucket. */
+    private static long upperBound(int bucket) {
+	if (bucket < SUB_BUCKETS)
+	    return bucket;
+	int exp = bucket / SUB_BUCKETS;
+	long sub = bucket % SUB_BUCKETS;
+	long width = 1L << (exp - 2);
+	return (SUB_BUCKETS + sub) * width + width - 1;
+    }
+
+    /** Number of durations recorded. */
+    public long getCount() {
+	long n = 0;
+	for (int i=0; i<NUM_BUCKETS; i++)
+	    n += count(i);
+	return n;
+    }
+
+    /** Sum of the durations recorded, in nanoseconds. */
+    public long getTotal() {
+	return total.sum();
+    }
+
+    /**
+     * Get (an upper bound of) the given percentile of the durations.
+     *
+     * @param p percentile, between 0 and 100
+     * @return duration in nanoseconds
+     */
+    public long getPercentile(double p) {
+	long count = getCount();
+	if (count == 0)
+	    return 0;
+	long rank = (long)Math.ceil(count * p / 100);
+	long seen = 0;
+	for (int i=0; i<NUM_BUCKETS; i++) {
+	    seen += count(i);
+	    if (seen >= Math.max(1, rank))
+		return Math.min(upperBound(i), getMax());
+	}
+	return getMax();
+    }
+
+    /**
+     * Summarise the histogram in a form suitable for a JSON report.
+     * Times are given in microseconds.
+     */
+    public Map<String, Object> toMap() {
+	Map<String, Object> m = new LinkedHashMap<>();
+	long count = getCount();
+	m.put("count", count);
+	m.put("totalMs", getTotal() / 1e6);
+	m.put("meanUs", (count == 0) ? 0 : getTotal() / 1e3 / count);
+	m.put("p50Us", getPercentile(50) / 1e3);
+	m.put("p90Us", getPercentile(90) / 1e3);
+	m.put("p99Us", getPercentile(99) / 1e3);
+	m.put("maxUs", getMax() / 1e3);
+	List<Object> hist = new ArrayList<>();
+	for (int i=0; i<NUM_BUCKETS; i++) {
+	    long n = count(i);
+	    if (n > 0) {
+		Map<String, Object> b = new LinkedHashMap<>();
+		b.put("leUs", upperBound(i) / 1e3);
+		b.put("count", n);
+		hist.add(b);
+	    }
+	}
+	m.put("buckets", hist);
+	return m;
+    }
+}
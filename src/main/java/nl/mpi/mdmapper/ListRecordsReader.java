@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper;
+
+import org.apache.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Reads a file of OAI-PMH records, such as a ListRecords response,
+ * and cuts the metadata of each record out into a document of its
+ * own, named by the OAI identifier of the record. The file is read
+ * with StAX, so only one record at a time is held in memory however
+ * large the file is. Records without metadata (e.g. deleted ones)
+ * are skipped.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+final class ListRecordsReader {
+    static final String OAI_NS = "http://www.openarchives.org/OAI/2.0/";
+
+    private static final Logger logger = Logger.getLogger(ListRecordsReader.class);
+
+    private static final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+    private static final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+
+    static {
+	// Nothing is fetched from the network; OAI-PMH responses have
+	// no DTD.
+	inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+	inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+	inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    private ListRecordsReader() {
+    }
+
+    /**
+     * Read the records of a file.
+     *
+     * @param file file of OAI-PMH records
+     * @param handler receiver of the metadata of each record
+     * @return number of records found
+     */
+    static int read(Path file, RecordInput.Handler handler) throws IOException, XMLStreamException {
+	try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+	    return read(in, file.toFile().toURI().toASCIIString(), handler);
+	}
+    }
+
+    /**
+     * Read the records of a stream.
+     *
+     * @param in stream of OAI-PMH records
+     * @param systemId URI of the stream, used as the system ID of
+     * the records
+     * @param handler receiver of the metadata of each record
+     * @return number of records found
+     */
+    static int read(InputStream in, String systemId, RecordInput.Handler handler) throws XMLStreamException {
+	XMLStreamReader r = inputFactory.createXMLStreamReader(systemId, in);
+	try {
+	    // Namespace declarations in scope, as prefix/URI pairs, and
+	    // how many there were outside each open element.
+	    List<String> scope = new ArrayList<>();
+	    List<Integer> scopeSizes = new ArrayList<>();
+	    boolean inHeader = false;
+	    boolean inMetadata = false;
+	    String identifier = null;
+	    int count = 0;
+
+	    while (r.hasNext()) {
+		int event = r.next();
+		if (event == XMLStreamConstants.START_ELEMENT) {
+		    if (inMetadata) {
+			// The payload; reading it ends at its end tag.
+			byte[] content = copy(r, scope);
+			inMetadata = false;
+			if (identifier == null) {
+			    logger.warn("Skipping record without identifier in " + systemId);
+			} else {
+			    count++;
+			    handler.record(new RecordInput(identifier, systemId, content));
+			}
+			continue;
+		    }
+		    String name = OAI_NS.equals(r.getNamespaceURI()) ? r.getLocalName() : "";
+		    if (inHeader && name.equals("identifier")) {
+			identifier = r.getElementText().trim();
+			continue;
+		    }
+		    scopeSizes.add(scope.size());
+		    for (int i=0; i<r.getNamespaceCount(); i++) {
+			scope.add(nonNull(r.getNamespacePrefix(i)));
+			scope.add(nonNull(r.getNamespaceURI(i)));
+		    }
+		    switch (name) {
+			case "record":
+			    identifier = null;
+			    break;
+			case "header":
+			    inHeader = true;
+			    break;
+			case "metadata":
+			    inMetadata = true;
+			    break;
+		    }
+		} else if (event == XMLStreamConstants.END_ELEMENT) {
+		    int size = scopeSizes.remove(scopeSizes.size()-1);
+		    scope.subList(size, scope.size()).clear();
+		    if (OAI_NS.equals(r.getNamespaceURI())) {
+			if (r.getLocalName().equals("header"))
+			    inHeader = false;
+			else if (r.getLocalName().equals("metadata"))
+			    inMetadata = false;
+		    }
+		}
+	    }
+	    return count;
+	} finally {
+	    r.close();
+	}
+    }
+
+    private static String nonNull(String s) {
+	return (s == null) ? "" : s;
+    }
+
+    /**
+     * Copy the element at the current position of the reader, and
+     * everything in it, into a document of its own. The namespace
+     * declarations in scope are repeated on the new document element.
+     * The reader is left at the end tag of the element.
+     *
+     * @param r reader positioned at a start tag
+     * @param scope namespace declarations in scope, as prefix/URI
+     * pairs from outermost to innermost
+     * @return the document, encoded in UTF-8
+     */
+    private static byte[] copy(XMLStreamReader r, List<String> scope) throws XMLStreamException {
+	ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192);
+	XMLStreamWriter w = outputFactory.createXMLStreamWriter(bytes, "UTF-8");
+	w.writeStartDocument("UTF-8", "1.0");
+	int depth = 0;
+	while (true) {
+	    switch (r.getEventType()) {
+		case XMLStreamConstants.START_ELEMENT:
+		    w.writeStartElement(nonNull(r.getPrefix()), r.getLocalName(),
+					nonNull(r.getNamespaceURI()));
+		    Set<String> declared = new HashSet<>();
+		    for (int i=0; i<r.getNamespaceCount(); i++) {
+			String prefix = nonNull(r.getNamespacePrefix(i));
+			declared.add(prefix);
+			writeNamespace(w, prefix, nonNull(r.getNamespaceURI(i)));
+		    }
+		    if (depth == 0) {
+			for (int i=scope.size()-2; i>=0; i-=2) {
+			    if (declared.add(scope.get(i)))
+				writeNamespace(w, scope.get(i), scope.get(i+1));
+			}
+		    }
+		    for (int i=0; i<r.getAttributeCount(); i++) {
+			w.writeAttribute(nonNull(r.getAttributePrefix(i)),
+					 nonNull(r.getAttributeNamespace(i)),
+					 r.getAttributeLocalName(i), r.getAttributeValue(i));
+		    }
+		    depth++;
+		    break;
+		case XMLStreamConstants.END_ELEMENT:
+		    w.writeEndElement();
+		    depth--;
+		    break;
+		case XMLStreamConstants.CHARACTERS:
+		case XMLStreamConstants.SPACE:
+		    w.writeCharacters(r.getTextCharacters(), r.getTextStart(), r.getTextLength());
+		    break;
+		case XMLStreamConstants.CDATA:
+		    w.writeCData(r.getText());
+		    break;
+		case XMLStreamConstants.COMMENT:
+		    w.writeComment(r.getText());
+		    break;
+		case XMLStreamConstants.PROCESSING_INSTRUCTION:
+		    w.writeProcessingInstruction(r.getPITarget(), r.getPIData());
+		    break;
+	    }
+	    if (depth == 0)
+		break;
+	    r.next();
+	}
+	w.writeEndDocument();
+	w.close();
+	return bytes.toByteArray();
+    }
+
+    private static void writeNamespace(XMLStreamWriter w, String prefix, String uri)
+	throws XMLStreamException {
+	if (prefix.isEmpty())
+	    w.writeDefaultNamespace(uri);
+	else
+	    w.writeNamespace(prefix, uri);
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A parsed absolute location path, such as
+ * "/cmd:CMD/cmd:Header/cmd:MdSelfLink" or "//cmd:Actor[cmd:Role='x']/@id".
+ * Only a subset of XPath is recognised: steps on the child or
+ * descendant axis (abbreviated syntax only), with a name test,
+ * optional predicates, and an attribute or text() step at the end.
+ * Expressions outside that subset are not location paths for our
+ * purposes, and the mappings that use them are evaluated as usual.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+final class LocationPath {
+    /** What kind of node a step selects. */
+    enum Kind { ELEMENT, ATTRIBUTE, TEXT }
+
+    /** A single step of the path. */
+    static final class Step {
+	/** True if the step is preceded by "//" rather than "/". */
+	final boolean descendant;
+	final Kind kind;
+	/** Namespace prefix of the name test; empty if none. */
+	final String prefix;
+	/** Local name of the name test; "*" for any, null for text(). */
+	final String localName;
+	/** Source text of the predicates, without the brackets. */
+	final List<String> predicates;
+
+	Step(boolean descendant, Kind kind, String prefix, String localName, List<String> predicates) {
+	    this.descendant = descendant;
+	    this.kind = kind;
+	    this.prefix = prefix;
+	    this.localName = localName;
+	    this.predicates = Collections.unmodifiableList(predicates);
+	}
+
+	/** True if this step is a plain child step with an exact name. */
+	boolean isPlain() {
+	    return !descendant && predicates.isEmpty() && localName != null
+		&& !localName.equals("*");
+	}
+
+	@Override
+	public String toString() {
+	    StringBuilder sb = new StringBuilder(descendant ? "//" : "/");
+	    if (kind == Kind.TEXT) {
+		sb.append("text()");
+	    } else {
+		if (kind == Kind.ATTRIBUTE)
+		    sb.append('@');
+		if (!prefix.isEmpty())
+		    sb.append(prefix).append(':');
+		sb.append(localName);
+	    }
+	    for (String p : predicates)
+		sb.append('[').append(p).append(']');
+	    return sb.toString();
+	}
+    }
+
+    private final List<Step> steps;
+
+    private LocationPath(List<Step> steps) {
+	this.steps = Collections.unmodifiableList(steps);
+    }
+
+    List<Step> getSteps() {
+	return steps;
+    }
+
+    /**
+     * Check whether this is a simple path: only plain child steps
+     * (no predicates, wildcards or "//"), optionally ending with an
+     * attribute or text() step. The value of such a path can be found
+     * in a single streaming pass over the document.
+     */
+    boolean isSimple() {
+	for (int i=0; i<steps.size(); i++) {
+	    Step s = steps.get(i);
+	    if (s.kind == Kind.TEXT) {
+		if (s.descendant || !s.predicates.isEmpty() || i != steps.size()-1)
+		    return false;
+	    } else if (!s.isPlain()) {
+		return false;
+	    } else if (s.kind == Kind.ATTRIBUTE && i != steps.size()-1) {
+		return false;
+	    }
+	}
+	return steps.get(0).kind == Kind.ELEMENT;
+    }
+
+    /**
+     * Get the number of leading steps that may be used as a context
+     * shared with other paths. These are element steps on the child
+     * axis; the nodes they select are in disjoint subtrees, so
+     * evaluating the rest of the path relative to each of them in
+     * turn finds the same nodes in the same (document) order. At
+     * least one step is always left for the relative part.
+     */
+    int getContextLength() {
+	int n = 0;
+	while (n < steps.size()-1 && !steps.get(n).descendant
+	       && steps.get(n).kind == Kind.ELEMENT)
+	    n++;
+	return n;
+    }
+
+    /**
+     * Get the absolute path formed by the first steps of this path.
+     *
+     * @param n number of steps, at most {@link #getContextLength()}
+     */
+    String getPrefix(int n) {
+	StringBuilder sb = new StringBuilder();
+	for (Step s : steps.subList(0, n))
+	    sb.append(s);
+	return sb.toString();
+    }
+
+    /**
+     * Get the rest of this path after the first steps, as a path
+     * relative to a node selected by {@link #getPrefix(int)}.
+     *
+     * @param n number of steps, at most {@link #getContextLength()}
+     */
+    String getRelative(int n) {
+	StringBuilder sb = new StringBuilder(".");
+	for (Step s : steps.subList(n, steps.size()))
+	    sb.append(s);
+	return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+	StringBuilder sb = new StringBuilder();
+	for (Step s : steps)
+	    sb.append(s);
+	return sb.toString();
+    }
+
+    /**
+     * Parse an XPath expression as a location path.
+     *
+     * @param expression source text of the expression
+     * @return the parsed path, or null if the expression is not a
+     * location path of the supported form
+     */
+    static LocationPath parse(String expression) {
+	String expr = expression.trim();
+	int len = expr.length();
+	int pos = 0;
+	List<Step> steps = new ArrayList<>();
+
+	while (pos < len) {
+	    // Separator: "/" or "//".
+	    if (expr.charAt(pos) != '/')
+		return null;
+	    pos++;
+	    boolean descendant = false;
+	    if (pos < len && expr.charAt(pos) == '/') {
+		descendant = true;
+		pos++;
+	    }
+
+	    // Node test.
+	    Kind kind = Kind.ELEMENT;
+	    String prefix = "";
+	    String localName;
+	    if (expr.startsWith("text()", pos)) {
+		kind = Kind.TEXT;
+		localName = null;
+		pos += 6;
+	    } else {
+		if (pos < len && expr.charAt(pos) == '@') {
+		    kind = Kind.ATTRIBUTE;
+		    pos++;
+		}
+		int end = scanName(expr, pos);
+		if (end == pos)
+		    return null;
+		localName = expr.substring(pos, end);
+		pos = end;
+		if (pos + 1 < len && expr.charAt(pos) == ':' && expr.charAt(pos+1) != ':') {
+		    end = scanName(expr, pos+1);
+		    if (end == pos+1)
+			return null;
+		    prefix = localName;
+		    localName = expr.substring(pos+1, end);
+		    pos = end;
+		}
+		if (prefix.equals("*") || (localName.equals("*") && kind == Kind.ATTRIBUTE))
+		    return null;
+	    }
+
+	    // Predicates.
+	    List<String> predicates = new ArrayList<>();
+	    while (pos < len && expr.charAt(pos) == '[') {
+		int end = scanPredicate(expr, pos);
+		if (end < 0)
+		    return null;
+		predicates.add(expr.substring(pos+1, end).trim());
+		pos = end + 1;
+	    }
+	    steps.add(new Step(descendant, kind, prefix, localName, predicates));
+
+	    // Nothing may follow an attribute or text node step.
+	    if (kind != Kind.ELEMENT && pos < len)
+		return null;
+	}
+	return steps.isEmpty() ? null : new LocationPath(steps);
+    }
+
+    /**
+     * Find the end of an NCName (or "*") starting at the given position.
+     */
+    private static int scanName(String s, int pos) {
+	if (pos < s.length() && s.charAt(pos) == '*')
+	    return pos + 1;
+	int i = pos;
+	while (i < s.length()) {
+	    char c = s.charAt(i);
+	    if (Character.isLetter(c) || c == '_'
+		|| (i > pos && (Character.isDigit(c) || c == '-' || c == '.')))
+		i++;
+	    else
+		break;
+	}
+	return i;
+    }
+
+    /**
+     * Find the closing bracket of a predicate that starts at the
+     * given position, taking nested brackets and string literals into
+     * account.
+     *
+     * @return position of the closing bracket, or -1 if there is none
+     */
+    private static int scanPredicate(String s, int pos) {
+	int depth = 0;
+	char quote = 0;
+	for (int i = pos; i < s.length(); i++) {
+	    char c = s.charAt(i);
+	    if (quote != 0) {
+		if (c == quote)
+		    quote = 0;
+	    } else if (c == '\'' || c == '"') {
+		quote = c;
+	    } else if (c == '[') {
+		depth++;
+	    } else if (c == ']') {
+		if (--depth == 0)
+		    return i;
+	    }
+	}
+	return -1;
+    }
+}
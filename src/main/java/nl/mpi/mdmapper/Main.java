@@ -18,11 +18,17 @@
 
 package nl.mpi.mdmapper;
 
+import nl.mpi.mdmapper.output.AsyncOutput;
+import nl.mpi.mdmapper.output.FacetList;
+import nl.mpi.mdmapper.output.Output;
+
 import org.apache.log4j.Logger;
 
+import java.util.HashSet;
+import java.util.Set;
+
 import java.nio.file.Paths;
 import java.nio.file.Path;
-import java.nio.file.Files;
 
 import java.io.PrintStream;
 import java.io.FileNotFoundException;
@@ -74,19 +80,87 @@ public class Main {
      * @param config configuration state object
      */
     public static void process(Configuration config) {
+	RunReport report = new RunReport();
+	long start = System.nanoTime();
 	String dirName = config.getInputdir();
 	MappingTable mt = new MappingTable(config.getMapfile(), config);
+	long loaded = System.nanoTime();
+	report.addPhase("load", loaded - start);
 
-	logger.info("Processing files in " + dirName + ".");
-	// Actually process all the files.
-	Path path = Paths.get(dirName);
-	FileProcessor fp = new FileProcessor(mt, config.getOutputs());
+	String listName = config.getInputlist();
+	Path path = (dirName == null) ? null : Paths.get(dirName);
+	InputList list = null;
+	if (listName != null) {
+	    logger.info("Processing files listed in " + (listName.equals("-") ? "standard input" : listName) + ".");
+	    list = new InputList(listName, path);
+	} else {
+	    logger.info("Processing files in " + dirName + ".");
+	}
+	Output[] configured = config.getOutputs();
+	TimedOutput[] timed = new TimedOutput[configured.length];
+	Set<String> names = new HashSet<>();
+	for (int i=0; i<configured.length; i++) {
+	    String name = configured[i].getClass().getSimpleName();
+	    for (int n=2; !names.add(name); n++)
+		name = configured[i].getClass().getSimpleName() + "#" + n;
+	    timed[i] = new TimedOutput(configured[i], name);
+	}
+	Output[] outputs = timed;
+	if (config.getWriterThreads() > 0) {
+	    outputs = new Output[] {
+		new AsyncOutput(outputs, config.getWriterThreads(), config.getWriterQueue())
+	    };
+	}
+	Manifest manifest = (config.getManifest() == null) ? null : new Manifest(config);
+	FileProcessor fp = new FileProcessor(mt, outputs, config.getThreads(), manifest);
+	fp.setListRecords(config.getListRecords());
+	boolean walked = true;
 	try {
-	    Files.walkFileTree(path, fp);
+	    // Actually process all the files.
+	    if (list != null)
+		list.scan(fp);
+	    else
+		new DirectoryScanner(config.getScanThreads(), config.getScanSorted()).scan(path, fp);
 	} catch (IOException e) {
-	    logger.error("Error processing file " + path, e);
+	    logger.error("Error processing " + ((list != null) ? listName : path), e);
+	    walked = false;
+	}
+	fp.finish();
+	long mapped = System.nanoTime();
+	report.addPhase("process", mapped - loaded);
+	// Closing the outputs waits for any records still queued for
+	// writing, so everything is saved before statistics are shown.
+	for (Output o : outputs)
+	    o.close();
+	long closed = System.nanoTime();
+	report.addPhase("close", closed - mapped);
+	if (manifest != null) {
+	    logger.info("" + fp.getNumSkipped() + " unchanged files skipped.");
+	    // If the walk was cut short, files not visited would wrongly
+	    // look as if they had been deleted.
+	    if (walked) {
+		// Files that were not listed are as they were.
+		if (list != null)
+		    manifest.keepUnvisited(list.getListed());
+		updateManifest(manifest, outputs);
+	    }
+	    report.addPhase("manifest", System.nanoTime() - closed);
+	}
+	MappingStatistics stats = mt.getStatistics();
+	logger.info("" + stats.getNumUses() + " records mapped; " + stats.getErrors()+ " records caused error(s).");
+
+	String reportFile = config.getReport();
+	if (reportFile != null) {
+	    report.addPhase("total", System.nanoTime() - start);
+	    report.addStatistics(stats);
+	    report.addTimings(fp, mt);
+	    report.addTimings(timed);
+	    try {
+		report.write(Paths.get(reportFile));
+	    } catch (IOException e) {
+		logger.error("Cannot write report " + reportFile, e);
+	    }
 	}
-	logger.info("" + mt.getNumUses() + " records mapped; " + mt.getErrors()+ " records caused error(s).");
 
 	// Processing completed; save statistics, if required.
 	String stat = config.getSavestats();
@@ -105,8 +179,37 @@ public class Main {
 		    return;
 		}
 	    }
-	    mt.printStatistics(out);
+	    stats.print(out);
 	    if (close) out.close();
 	}
     }
+
+    /**
+     * Remove the output of records whose input files have
+     * disappeared, and save the manifest for the next run.
+     */
+    private static void updateManifest(Manifest manifest, Output[] outputs) {
+	// Outputs are named after the file name only, so an output may
+	// now belong to a file of the same name in another directory.
+	Set<String> live = new HashSet<>();
+	for (String source : manifest.getSources())
+	    live.add(new FacetList(source).getOutputName("xml"));
+
+	int removed = 0;
+	for (String source : manifest.getObsoleteSources()) {
+	    if (live.contains(new FacetList(source).getOutputName("xml")))
+		continue;
+	    logger.info("Removing output of " + source);
+	    for (Output o : outputs)
+		o.remove(source);
+	    removed++;
+	}
+	logger.info("" + removed + " obsolete records removed.");
+
+	try {
+	    manifest.save();
+	} catch (IOException e) {
+	    logger.error("Cannot save manifest", e);
+	}
+    }
 }
@@ -0,0 +1,420 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper;
+
+import org.apache.log4j.Logger;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A record of the input files processed in the previous run, used to
+ * map only new and changed files. For each input file the manifest
+ * stores its size, modification time and optionally a hash of its
+ * contents, as well as the sources of the records produced from it
+ * (so their output can be removed if the file disappears).
+ * <p>
+ * The manifest also stores a digest of the mapping file, the outputs
+ * and the parameters. If any of these has changed since the previous
+ * run, every file is considered changed.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+public class Manifest {
+    private static final Logger logger = Logger.getLogger(Manifest.class);
+
+    /**
+     * Parameters that affect only the performance of the mapper, which
+     * files are looked at or what is reported, not how they are mapped; changing
+     * these does not force a full run.
+     */
+    private static final Set<String> performanceParams = new HashSet<>
+	(Arrays.asList(new String[] {"threads", "engine", "savestats", "manifest",
+				     "manifesthash", "config", "writerthreads",
+				     "writerqueue", "scanthreads", "scansorted",
+				     "inputlist", "report"} ));
+
+    private static final String SETTINGS = "settings";
+
+    /** File the manifest is read from and saved to. */
+    private final Path file;
+
+    /** Whether to compare the contents of files as well. */
+    private final boolean useHash;
+
+    /** Digest of the settings of the current run. */
+    private final String settings;
+
+    /** Entries read from the previous manifest, indexed by path. */
+    private final Map<String, Entry> previous;
+
+    /** Entries of the current run, indexed by path. */
+    private final Map<String, Entry> current;
+
+    /**
+     * Create a manifest for the current run, reading the previous
+     * one from the file given in the configuration if it exists.
+     *
+     * @param config configuration of the current run
+     */
+    public Manifest(Configuration config) {
+	file = Paths.get(config.getManifest());
+	useHash = config.getManifestHash();
+	settings = digestSettings(config);
+	previous = new TreeMap<>();
+	current = new ConcurrentHashMap<>();
+	read();
+    }
+
+    /**
+     * An input file as recorded in a manifest.
+     */
+    public static class Entry {
+	private final String path;
+	private final long size;
+	private final long modified;
+	private final String hash;
+	private final List<String> sources;
+
+	Entry(String path, long size, long modified, String hash, List<String> sources) {
+	    this.path = path;
+	    this.size = size;
+	    this.modified = modified;
+	    this.hash = hash;
+	    this.sources = sources;
+	}
+
+	public String getPath() {
+	    return path;
+	}
+
+	/**
+	 * Get the sources of the records produced from this file.
+	 */
+	public List<String> getSources() {
+	    return sources;
+	}
+
+	/**
+	 * Get a copy of this entry for a file that produced the
+	 * given records, e.g. a file of many OAI-PMH records.
+	 */
+	public Entry withSources(List<String> sources) {
+	    return new Entry(path, size, modified, hash, sources);
+	}
+    }
+
+    /**
+     * Read the previous manifest. A missing or unreadable manifest
+     * simply means that all files are processed.
+     */
+    private void read() {
+	List<String> lines;
+	try {
+	    lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+	} catch (NoSuchFileException e) {
+	    logger.info("No manifest " + file + " yet; processing all files.");
+	    return;
+	} catch (IOException e) {
+	    logger.error("Cannot read manifest " + file + "; processing all files.", e);
+	    return;
+	}
+
+	boolean sameSettings = false;
+	for (String line : lines) {
+	    String[] f = line.split("\t", -1);
+	    if (f.length == 2 && f[0].equals(SETTINGS)) {
+		sameSettings = settings.equals(f[1]);
+		continue;
+	    }
+	    if (f.length < 4) {
+		logger.debug("Ignoring manifest line: " + line);
+		continue;
+	    }
+	    try {
+		List<String> sources = Arrays.asList(f).subList(4, f.length);
+		previous.put(f[0], new Entry(f[0], Long.parseLong(f[1]), Long.parseLong(f[2]),
+					     f[3], new ArrayList<>(sources)));
+	    } catch (NumberFormatException e) {
+		logger.debug("Ignoring manifest line: " + line);
+	    }
+	}
+
+	if (!sameSettings && !previous.isEmpty()) {
+	    // Previous entries are still needed to find the output
+	    // of files that have disappeared, but none of them can be
+	    // trusted to be up to date.
+	    logger.info("Mapping file, configuration or parameters have changed; processing all files.");
+	    for (Map.Entry<String, Entry> me : previous.entrySet()) {
+		Entry e = me.getValue();
+		me.setValue(new Entry(e.path, -1, -1, "", e.sources));
+	    }
+	}
+    }
+
+    /**
+     * Check whether a file has changed since the previous run. An
+     * unchanged file is carried over to the new manifest directly;
+     * a changed one must be added with {@link #put(Entry)} once it
+     * has been processed successfully.
+     *
+     * @param path input file
+     * @param attrs attributes of the file
+     * @return a new entry for the file if it is new or has changed,
+     * otherwise null
+     */
+    public Entry check(Path path, BasicFileAttributes attrs) {
+	String key = path.toString();
+	long size = attrs.size();
+	long modified = attrs.lastModifiedTime().toMillis();
+	Entry old = previous.get(key);
+
+	if (old != null && old.size == size && old.modified == modified) {
+	    current.put(key, old);
+	    return null;
+	}
+
+	String hash = "";
+	if (useHash) {
+	    hash = hash(path);
+	    // Contents are the same even though the file was touched.
+	    if (old != null && old.size == size && !hash.isEmpty() && hash.equals(old.hash)) {
+		current.put(key, new Entry(key, size, modified, hash, old.sources));
+		return null;
+	    }
+	}
+	return new Entry(key, size, modified, hash, Collections.singletonList(key));
+    }
+
+    /**
+     * Add an entry for a file that has been processed.
+     */
+    public void put(Entry e) {
+	current.put(e.path, e);
+    }
+
+    /**
+     * Add an entry for a file that failed in this run. The records
+     * of the file from the previous run, and any it produced now, are
+     * kept; the entry is marked as stale, so that the file is tried
+     * again in the next run.
+     *
+     * @param e new entry of the file, with the sources of the records
+     * produced in this run
+     */
+    public void putFailed(Entry e) {
+	Set<String> sources = new LinkedHashSet<>(e.sources);
+	Entry old = previous.get(e.path);
+	if (old != null)
+	    sources.addAll(old.sources);
+	current.put(e.path, new Entry(e.path, -1, -1, "", new ArrayList<>(sources)));
+    }
+
+    /**
+     * Keep the entries of a file, or of all files in a directory,
+     * that could not be read in this run. They are marked as stale,
+     * so that the files are tried again in the next run.
+     *
+     * @param path the file or directory
+     */
+    public void keepFailed(Path path) {
+	String key = path.toString();
+	String prefix = key + File.separator;
+	for (Entry e : previous.values()) {
+	    if ((e.path.equals(key) || e.path.startsWith(prefix)) && !current.containsKey(e.path))
+		current.put(e.path, new Entry(e.path, -1, -1, "", e.sources));
+	}
+    }
+
+    /**
+     * Carry over the entries of all files that were not looked at in
+     * this run, e.g. because only a list of changed files was
+     * processed, so that their output is not considered obsolete.
+     *
+     * @param visited paths of the files that were looked at
+     */
+    public void keepUnvisited(Set<String> visited) {
+	for (Entry e : previous.values()) {
+	    if (!visited.contains(e.path) && !current.containsKey(e.path))
+		current.put(e.path, e);
+	}
+    }
+
+    /**
+     * Get the sources of records that existed in the previous run but
+     * were not produced in this one, i.e. whose output is obsolete.
+     */
+    public Set<String> getObsoleteSources() {
+	Set<String> live = getSources();
+	Set<String> obsolete = new HashSet<>();
+	for (Entry e : previous.values()) {
+	    for (String s : e.sources) {
+		if (!live.contains(s))
+		    obsolete.add(s);
+	    }
+	}
+	return obsolete;
+    }
+
+    /**
+     * Get the sources of all records of the current run, including
+     * those of unchanged files.
+     */
+    public Set<String> getSources() {
+	Set<String> live = new HashSet<>();
+	for (Entry e : current.values())
+	    live.addAll(e.sources);
+	return live;
+    }
+
+    /**
+     * Number of files that were found unchanged or have been
+     * processed in this run.
+     */
+    public int size() {
+	return current.size();
+    }
+
+    /**
+     * Write the manifest of the current run. The new manifest
+     * replaces the old one only once it has been written completely,
+     * so an interrupted run leaves the previous manifest intact.
+     */
+    public void save() throws IOException {
+	Path dir = file.toAbsolutePath().getParent();
+	Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+	try {
+	    try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+		w.write(SETTINGS + "\t" + settings);
+		w.newLine();
+		for (Entry e : new TreeMap<>(current).values()) {
+		    if (!isStorable(e.path)) {
+			logger.debug("Cannot store " + e.path + " in manifest");
+			continue;
+		    }
+		    w.write(e.path + "\t" + e.size + "\t" + e.modified + "\t" + e.hash);
+		    for (String s : e.sources) {
+			if (isStorable(s))
+			    w.write("\t" + s);
+		    }
+		    w.newLine();
+		}
+	    }
+	    try {
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+			   StandardCopyOption.ATOMIC_MOVE);
+	    } catch (AtomicMoveNotSupportedException e) {
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+	    }
+	} finally {
+	    Files.deleteIfExists(tmp);
+	}
+    }
+
+    private static boolean isStorable(String s) {
+	return s.indexOf('\t') < 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0;
+    }
+
+    /**
+     * Compute a digest of everything besides the input files that
+     * determines the output: the mapping file, the outputs and the
+     * parameters.
+     */
+    private static String digestSettings(Configuration config) {
+	MessageDigest md = newDigest();
+	String name = config.getMapfile();
+	if (name != null) {
+	    try {
+		md.update(Files.readAllBytes(Paths.get(name)));
+	    } catch (IOException e) {
+		logger.error("Cannot read " + name + " for manifest", e);
+	    }
+	    md.update((byte)0);
+	}
+	// The configuration file counts through the parameters and
+	// outputs read from it, so that e.g. changing the number of
+	// threads there does not force a full run.
+	for (String output : config.getOutputSettings())
+	    md.update((output + "\n").getBytes(StandardCharsets.UTF_8));
+	Map<String, String> params = new TreeMap<>(config.getParams());
+	for (Map.Entry<String, String> e : params.entrySet()) {
+	    if (performanceParams.contains(e.getKey()))
+		continue;
+	    md.update((e.getKey() + "=" + e.getValue() + "\n").getBytes(StandardCharsets.UTF_8));
+	}
+	return toHex(md.digest());
+    }
+
+    /**
+     * Compute a hash of the contents of a file.
+     *
+     * @return the hash, or an empty string if the file cannot be read
+     */
+    private static String hash(Path path) {
+	MessageDigest md = newDigest();
+	byte[] buf = new byte[8192];
+	try (InputStream in = Files.newInputStream(path)) {
+	    int n;
+	    while ((n = in.read(buf)) > 0)
+		md.update(buf, 0, n);
+	} catch (IOException e) {
+	    logger.error("Cannot read " + path, e);
+	    return "";
+	}
+	return toHex(md.digest());
+    }
+
+    private static MessageDigest newDigest() {
+	try {
+	    return MessageDigest.getInstance("SHA-1");
+	} catch (NoSuchAlgorithmException e) {
+	    // Every Java platform is required to support SHA-1.
+	    throw new IllegalStateException(e);
+	}
+    }
+
+    private static String toHex(byte[] bytes) {
+	StringBuilder sb = new StringBuilder();
+	for (byte b : bytes)
+	    sb.append(String.format("%02x", b));
+	return sb.toString();
+    }
+}
@@ -20,7 +20,8 @@ package nl.mpi.mdmapper;
 
 import nl.mpi.mdmapper.output.FacetList;
 import org.apache.log4j.Logger;
-import org.w3c.dom.Document;
+
+import java.util.Set;
 
 /**
  * A mapping rule for an individual field (facet).
@@ -32,36 +33,52 @@ public abstract class Mapping {
 
     /**
      * Number of times this mapping has been applied with non-empty
-     * result (for debug / statistics purposes).
+     * result (for debug / statistics purposes). Records may be mapped
+     * concurrently, so a striped counter is used to avoid contention.
      */
-    protected int numUses;
+    private final StripedCounter numUses;
+
+    /**
+     * Time taken by each evaluation of this mapping, and number of
+     * evaluations that did not match (for profiling).
+     */
+    private final LatencyHistogram evalTimes;
+    private final StripedCounter numMisses;
+
+    /**
+     * Profiles this mapping applies to, or null if it applies to all
+     * records.
+     */
+    private Set<String> profiles;
 
     protected Mapping() {
-	numUses = 0;
+	numUses = new StripedCounter();
+	evalTimes = new LatencyHistogram();
+	numMisses = new StripedCounter();
     }
 
     /**
-     * Apply this mapping to the specified document tree.
+     * Apply this mapping to the specified record.
      *
-     * @param doc DOM tree representing a metadata record
+     * @param rec parsed metadata record
      * @return result of mapping as a string, or the empty string if
      * there is no other result.
      */
-    public abstract String apply(Document doc) throws MappingException;
+    public abstract String apply(Record rec) throws MappingException;
 
     /**
-     * Apply mapping to the specified document and add result
+     * Apply mapping to the specified record and add result
      * to the given facet list.
      *
-     * @param doc DOM tree representing a metadata record
+     * @param rec parsed metadata record
      * @param facetName name of target facet in the facet list
      * @param fl facet list to which the result is to be added
      * @return true if mapping mathced, false otherwise
      * @throws nl.mpi.mdmapper.MappingException on any error
      */
-    public boolean mapAndAdd(Document doc, String facetName, FacetList fl)
+    public boolean mapAndAdd(Record rec, String facetName, FacetList fl)
 	    throws MappingException {
-	String s  = apply(doc);
+	String s  = apply(rec);
 
 	if (!s.isEmpty()) {
 	    fl.add(facetName, s);
@@ -76,7 +93,68 @@ public abstract class Mapping {
      *
      * @return number of uses of this mapping
      */
-    public int getNumUses() {
-	return numUses;
+    public long getNumUses() {
+	return numUses.sum();
+    }
+
+    /**
+     * Record one application of this mapping with non-empty result.
+     */
+    protected void countUse() {
+	numUses.increment();
+    }
+
+    /**
+     * Check whether this mapping can possibly match a record, without
+     * evaluating it. The default implementation always says yes.
+     *
+     * @param rec parsed record
+     * @return false if the mapping would not match the record
+     */
+    boolean canMatch(Record rec) {
+	return true;
+    }
+
+    /**
+     * Declare the profiles this mapping applies to. It is not
+     * evaluated for records of other known profiles.
+     *
+     * @param profiles profile identifiers, or null for all records
+     */
+    void setProfiles(Set<String> profiles) {
+	this.profiles = profiles;
+    }
+
+    /**
+     * Get the profiles this mapping applies to, or null if it applies
+     * to all records.
+     */
+    Set<String> getProfiles() {
+	return profiles;
+    }
+
+    /**
+     * Record one evaluation of this mapping.
+     *
+     * @param nanos time taken, in nanoseconds
+     * @param matched whether the mapping matched
+     */
+    void recordEvaluation(long nanos, boolean matched) {
+	evalTimes.record(nanos);
+	if (!matched)
+	    numMisses.increment();
+    }
+
+    /** Time taken by evaluations of this mapping. */
+    LatencyHistogram getEvalTimes() {
+	return evalTimes;
+    }
+
+    /**
+     * Get number of times this mapping has been evaluated without
+     * matching (including errors).
+     */
+    public long getNumMisses() {
+	return numMisses.sum();
     }
 }
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper;
+
+import java.io.PrintStream;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An immutable snapshot of the usage statistics of a mapping table:
+ * how many records were mapped, how many caused errors, how often
+ * each mapping of each facet produced the value of that facet, and
+ * how much time evaluating each mapping took.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+public final class MappingStatistics {
+    private final long numUses;
+    private final long numErrors;
+    private final List<Facet> facets;
+
+    /** How many mappings to list as the most expensive ones. */
+    private static final int MOST_EXPENSIVE = 10;
+
+    /**
+     * Cost of evaluating a single mapping.
+     */
+    public static final class Cost {
+	private final long evaluations;
+	private final long misses;
+	private final long totalNanos;
+	private final long p50Nanos;
+	private final long p99Nanos;
+
+	Cost(long evaluations, long misses, long totalNanos, long p50Nanos, long p99Nanos) {
+	    this.evaluations = evaluations;
+	    this.misses = misses;
+	    this.totalNanos = totalNanos;
+	    this.p50Nanos = p50Nanos;
+	    this.p99Nanos = p99Nanos;
+	}
+
+	/** Number of times the mapping was evaluated. */
+	public long getEvaluations() {
+	    return evaluations;
+	}
+
+	/** Number of evaluations that did not match. */
+	public long getMisses() {
+	    return misses;
+	}
+
+	/** Total time taken by the evaluations, in nanoseconds. */
+	public long getTotalNanos() {
+	    return totalNanos;
+	}
+
+	/** Median time of an evaluation, in nanoseconds. */
+	public long getP50Nanos() {
+	    return p50Nanos;
+	}
+
+	/** 99th percentile of the time of an evaluation, in nanoseconds. */
+	public long getP99Nanos() {
+	    return p99Nanos;
+	}
+    }
+
+    /**
+     * The cost of a mapping together with the facet and mapping it
+     * belongs to, for ranking the mappings of all facets.
+     */
+    private static final class RankedCost {
+	private final String facet;
+	private final String mapping;
+	private final Cost cost;
+
+	RankedCost(String facet, String mapping, Cost cost) {
+	    this.facet = facet;
+	    this.mapping = mapping;
+	    this.cost = cost;
+	}
+    }
+
+    /** Orders costs from the largest total time to the smallest. */
+    private static final Comparator<RankedCost> MOST_EXPENSIVE_FIRST = new Comparator<RankedCost>() {
+	@Override
+	public int compare(RankedCost a, RankedCost b) {
+	    long ta = a.cost.getTotalNanos();
+	    long tb = b.cost.getTotalNanos();
+	    return (ta < tb) ? 1 : (ta > tb) ? -1 : 0;
+	}
+    };
+
+    /**
+     * Usage counts of the mappings of a single facet, in the order in
+     * which the mappings are tried.
+     */
+    public static final class Facet {
+	private final String name;
+	private final List<String> mappings;
+	private final List<Long> uses;
+	private final List<Cost> costs;
+
+	Facet(String name, List<String> mappings, List<Long> uses, List<Cost> costs) {
+	    this.name = name;
+	    this.mappings = Collections.unmodifiableList(new ArrayList<>(mappings));
+	    this.uses = Collections.unmodifiableList(new ArrayList<>(uses));
+	    this.costs = Collections.unmodifiableList(new ArrayList<>(costs));
+	}
+
+	public String getName() {
+	    return name;
+	}
+
+	/** Descriptions of the mappings of this facet. */
+	public List<String> getMappings() {
+	    return mappings;
+	}
+
+	/** Number of uses of each mapping (same order as getMappings). */
+	public List<Long> getUses() {
+	    return uses;
+	}
+
+	/** Cost of each mapping (same order as getMappings). */
+	public List<Cost> getCosts() {
+	    return costs;
+	}
+
+	/** Number of records for which none of the mappings matched. */
+	public long getUnmapped(long numRecords) {
+	    long unmapped = numRecords;
+	    for (long n : uses)
+		unmapped -= n;
+	    return unmapped;
+	}
+    }
+
+    MappingStatistics(long numUses, long numErrors, List<Facet> facets) {
+	this.numUses = numUses;
+	this.numErrors = numErrors;
+	this.facets = Collections.unmodifiableList(new ArrayList<>(facets));
+    }
+
+    /** Number of records processed. */
+    public long getNumUses() {
+	return numUses;
+    }
+
+    /** Number of records that caused at least one error. */
+    public long getErrors() {
+	return numErrors;
+    }
+
+    public List<Facet> getFacets() {
+	return facets;
+    }
+
+    /**
+     * Print statistics of coverage of mappings.
+     */
+    public void print(PrintStream out) {
+	DecimalFormat df = new DecimalFormat("0.#");
+
+	out.println("----- Statistics of coverage of mappings -----");
+	for (Facet f : facets) {
+	    out.println("  --- Facet: " + f.getName() + " ---");
+	    for (int i=0; i<f.mappings.size(); i++) {
+		long n = f.uses.get(i);
+		out.println("\t" + n + " (" + df.format(100*(double)n/numUses) + " %) \t" + f.mappings.get(i));
+	    }
+	    long unmapped = f.getUnmapped(numUses);
+	    if (unmapped > 0)
+		out.println("\t" + unmapped + " (" + df.format(100*(double)unmapped/numUses) + " %) \tunmapped");
+	}
+
+	printMostExpensive(out);
+    }
+
+    /**
+     * Print the mappings that took the most time in total, with the
+     * number of evaluations that did not match.
+     */
+    private void printMostExpensive(PrintStream out) {
+	List<RankedCost> all = new ArrayList<>();
+	for (Facet f : facets) {
+	    for (int i=0; i<f.mappings.size(); i++)
+		all.add(new RankedCost(f.getName(), f.mappings.get(i), f.costs.get(i)));
+	}
+	Collections.sort(all, MOST_EXPENSIVE_FIRST);
+
+	DecimalFormat df = new DecimalFormat("0.###");
+	out.println("----- Most expensive mappings -----");
+	out.println("\ttotal ms\tp50 us\tp99 us\tevaluations\tmisses\tfacet: mapping");
+	for (RankedCost r : all.subList(0, Math.min(MOST_EXPENSIVE, all.size()))) {
+	    Cost c = r.cost;
+	    out.println("\t" + df.format(c.getTotalNanos() / 1e6) + "\t" + df.format(c.getP50Nanos() / 1e3)
+			+ "\t" + df.format(c.getP99Nanos() / 1e3) + "\t" + c.getEvaluations()
+			+ "\t" + c.getMisses() + "\t" + r.facet + ": " + r.mapping);
+	}
+    }
+}
@@ -19,13 +19,18 @@
 package nl.mpi.mdmapper;
 
 import nl.mpi.mdmapper.output.FacetList;
+import nl.mpi.mdmapper.parser.CatalogResolver;
+import nl.mpi.mdmapper.parser.Parsers;
 
 import org.apache.log4j.Logger;
 
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Set;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
@@ -33,14 +38,11 @@ import org.w3c.dom.NodeList;
 import org.w3c.dom.NamedNodeMap;
 
 import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathFactory;
 import java.io.PrintStream;
-import java.text.DecimalFormat;
 
 import java.io.IOException;
 import java.nio.file.Path;
@@ -55,46 +57,62 @@ import org.xml.sax.SAXException;
 public class MappingTable {
     private static final Logger logger = Logger.getLogger(MappingTable.class);
 
+    /**
+     * Shared contexts of location paths must have at least this many
+     * steps; the root element alone is found quickly anyway.
+     */
+    private static final int MIN_CONTEXT_STEPS = 2;
+
     private Map<String, List<Mapping>> mappings;
-    private XPath xpath;
-    private DocumentBuilder db;
     private Configuration config;
 
+    /** Engine used to parse records and evaluate expressions. */
+    private Engine engine;
+
+    /** Selects the mappings that can apply to each record. */
+    private DispatchIndex dispatch;
+
     /** How many documents have been processed (for statistics). */
-    private int numUses;
+    private final StripedCounter numUses;
 
     /** How many documents have caused an error (for statistics). */
-    private int numErrors;
+    private final StripedCounter numErrors;
+
+    /** Time taken to parse records, to map them, and to map each facet. */
+    private final LatencyHistogram parseTimes;
+    private final LatencyHistogram mapTimes;
+    private final Map<String, LatencyHistogram> facetTimes;
 
     public MappingTable(String mapFile, Configuration config) {
 	this.config = config;
 
-	numUses = 0;
-	numErrors = 0;
-
-	// Initialise the XPath processing paraphernalia.
-	XPathFactory factory = XPathFactory.newInstance();
-	xpath = factory.newXPath();
-	try {
-	    DocumentBuilderFactory fac = DocumentBuilderFactory.newInstance();
-	    db = fac.newDocumentBuilder();
-	} catch (ParserConfigurationException eE) {
-	    logger.error("Cannot create parser", eE);
-	}
+	numUses = new StripedCounter();
+	numErrors = new StripedCounter();
+	parseTimes = new LatencyHistogram();
+	mapTimes = new LatencyHistogram();
 
 	mappings = new HashMap<>();
 	readMappings(mapFile);
+
+	facetTimes = new HashMap<>();
+	for (String facet : mappings.keySet())
+	    facetTimes.put(facet, new LatencyHistogram());
     }
 
     /**
-     * Read the mappings from an XML file. Since we have all the XPath
-     * stuff ready, let's use it here too.
+     * Read the mappings from an XML file.
      */
     private void readMappings(String mapFile) {
 	// Note: not being able to read the mapping file terminates
 	// the converter.
+	XPath xp = XPathFactory.newInstance().newXPath();
 	Document mapping = null;
+	// The mapping file and the records are parsed with the same
+	// resolver, so external entities are looked up in the catalog
+	// (and cached) in both.
+	CatalogResolver resolver = new CatalogResolver(config.getCatalog(), config.getExternalEntities());
 	try {
+	    DocumentBuilder db = new Parsers(resolver, false).getDocumentBuilder();
 	    mapping = db.parse(mapFile);
 	} catch (SAXException e) {
 	    logger.error(e.getMessage(), e);
@@ -104,19 +122,63 @@ public class MappingTable {
 	    System.exit(1);
 	}
 
-	NSContext nsContext = null;
 	try {
-	    nsContext = parseNamespaces((NodeList)xpath.evaluate("/mapping-table/namespaces/namespace",
-								 mapping, XPathConstants.NODESET));
+	    NSContext nsContext = parseNamespaces((NodeList)xp.evaluate("/mapping-table/namespaces/namespace",
+							      mapping, XPathConstants.NODESET));
+	    NodeList fields = (NodeList)xp.evaluate("/mapping-table/mappings/field", mapping,
+						    XPathConstants.NODESET);
 
-	    parseFieldMappings((NodeList)xpath.evaluate("/mapping-table/mappings/field", mapping,
-							XPathConstants.NODESET));
+	    // The engine needs the namespace bindings to compile the
+	    // mapping expressions.
+	    engine = createEngine(config.getEngine(), nsContext, new Parsers(resolver, true));
+	    NodeList xpaths = (NodeList)xp.evaluate("/mapping-table/mappings/field/xpath", mapping,
+						    XPathConstants.NODESET);
+	    parseFieldMappings(fields, findSharedContexts(xpaths), findRepeated(xpaths));
+	    CompiledXpath profilePath = null;
+	    String profile = xp.evaluate("/mapping-table/profile", mapping).trim();
+	    if (!profile.isEmpty()) {
+		try {
+		    profilePath = engine.compile(profile);
+		} catch (XPathExpressionException e) {
+		    logger.error("Invalid XPath expression '" + profile
+				 + "' for profile, evaluating all mappings for all profiles", e);
+		}
+	    }
+	    engine.prepare(mappings);
+	    ElementNames names = findRequiredNames(nsContext);
+	    if (names.size() > 0)
+		engine.collectElementNames(names);
+	    dispatch = new DispatchIndex(mappings, nsContext, profilePath);
 	} catch (XPathExpressionException e) {
 	    logger.error("XPath error", e);
 	    System.exit(1);
 	}
+    }
 
-	xpath.setNamespaceContext(nsContext);
+    /**
+     * Create the evaluation engine with the given name.
+     *
+     * @param name engine name (dom, saxon, stream or xslt); null
+     * means the default
+     * @param nsContext namespace bindings used in the mappings
+     * @param parsers parsers for the records
+     */
+    private Engine createEngine(String name, NSContext nsContext, Parsers parsers) {
+	if (name == null)
+	    name = "dom";
+	switch (name) {
+	    case "dom":
+		return new DomEngine(nsContext, parsers);
+	    case "saxon":
+		return new SaxonEngine(nsContext, parsers);
+	    case "stream":
+		return new StreamEngine(nsContext, parsers);
+	    case "xslt":
+		return new XsltEngine(nsContext, parsers);
+	    default:
+		logger.error("Unknown engine " + name + ", using dom");
+		return new DomEngine(nsContext, parsers);
+	}
     }
 
     /**
@@ -136,11 +198,143 @@ public class MappingTable {
 	return nsContext;
     }
 
+    /**
+     * Find location paths whose first steps are shared with other
+     * expressions, such as "/cmd:CMD/cmd:Components/cmd:Session".
+     * Each path gets the longest such prefix, so that the nodes it
+     * selects can be found once per record rather than once per
+     * expression.
+     *
+     * @param nl the XPath mapping elements
+     * @return number of shared steps of each expression that has any
+     */
+    private static Map<String, Integer> findSharedContexts(NodeList nl) {
+	Map<String, LocationPath> paths = new HashMap<>();
+	for (int i=0; i<nl.getLength(); i++) {
+	    String expression = nl.item(i).getTextContent();
+	    LocationPath path = LocationPath.parse(expression);
+	    if (path != null)
+		paths.put(expression, path);
+	}
+
+	// How many different expressions start with each prefix.
+	Map<String, Integer> counts = new HashMap<>();
+	for (LocationPath path : paths.values()) {
+	    for (int n=MIN_CONTEXT_STEPS; n<=path.getContextLength(); n++) {
+		String prefix = path.getPrefix(n);
+		Integer c = counts.get(prefix);
+		counts.put(prefix, (c == null) ? 1 : c+1);
+	    }
+	}
+
+	Map<String, Integer> shared = new HashMap<>();
+	for (Map.Entry<String, LocationPath> e : paths.entrySet()) {
+	    LocationPath path = e.getValue();
+	    for (int n=path.getContextLength(); n>=MIN_CONTEXT_STEPS; n--) {
+		if (counts.get(path.getPrefix(n)) > 1) {
+		    shared.put(e.getKey(), n);
+		    break;
+		}
+	    }
+	}
+	return shared;
+    }
+
+    /**
+     * Find expressions used by more than one mapping, e.g. a title
+     * used for both the title and the name facets. Their results are
+     * remembered while a record is mapped.
+     *
+     * @param nl the XPath mapping elements
+     * @return memo number of each expression used more than once
+     */
+    private static Map<String, Integer> findRepeated(NodeList nl) {
+	Map<String, Integer> counts = new HashMap<>();
+	for (int i=0; i<nl.getLength(); i++) {
+	    String expression = nl.item(i).getTextContent();
+	    Integer c = counts.get(expression);
+	    counts.put(expression, (c == null) ? 1 : c+1);
+	}
+	Map<String, Integer> repeated = new HashMap<>();
+	for (Map.Entry<String, Integer> e : counts.entrySet()) {
+	    if (e.getValue() > 1)
+		repeated.put(e.getKey(), repeated.size());
+	}
+	return repeated;
+    }
+
+    /**
+     * Find the element names required by each location path mapping:
+     * a path selects nothing in a record that lacks any element named
+     * in its steps. Names in predicates are not required, and other
+     * kinds of expression (e.g. count()) have a value even when their
+     * paths select nothing.
+     *
+     * @return all required names
+     */
+    private ElementNames findRequiredNames(NSContext nsContext) {
+	ElementNames names = new ElementNames();
+	Map<XpathMapping, List<Integer>> required = new HashMap<>();
+	for (List<Mapping> mapList : mappings.values()) {
+	    for (Mapping m : mapList) {
+		if (!(m instanceof XpathMapping))
+		    continue;
+		LocationPath path = LocationPath.parse(((XpathMapping)m).getExpression());
+		if (path == null)
+		    continue;
+		List<Integer> numbers = new ArrayList<>();
+		for (LocationPath.Step step : path.getSteps()) {
+		    if (step.kind != LocationPath.Kind.ELEMENT || step.localName.equals("*"))
+			continue;
+		    // As in JAXP, an unprefixed name is in no namespace.
+		    String uri = step.prefix.isEmpty() ? "" : nsContext.getNamespaceURI(step.prefix);
+		    numbers.add(names.add(uri, step.localName));
+		}
+		if (!numbers.isEmpty())
+		    required.put((XpathMapping)m, numbers);
+	    }
+	}
+
+	// Sets can be created once the number of names is known.
+	for (Map.Entry<XpathMapping, List<Integer>> e : required.entrySet()) {
+	    long[] set = names.newSet();
+	    for (int n : e.getValue())
+		ElementNames.add(set, n);
+	    e.getKey().setRequiredNames(set);
+	}
+	return names;
+    }
+
+    /**
+     * Compile an XPath mapping, with the shared context found for it
+     * (if any).
+     *
+     * @param contextSteps number of shared steps, or null if none
+     */
+    private CompiledXpath compile(String expression, Integer contextSteps)
+	throws XPathExpressionException {
+	if (contextSteps == null)
+	    return engine.compile(expression);
+	LocationPath path = LocationPath.parse(expression);
+	String context = path.getPrefix(contextSteps);
+	String relative = path.getRelative(contextSteps);
+	logger.debug("Evaluating " + expression + " as " + relative + " in shared context " + context);
+	return engine.compile(expression, context, relative);
+    }
+
     /**
      * Parse mapping definitions from configuration file and add them
      * directly into 'mappings'.
+     *
+     * @param contexts number of shared context steps of each
+     * expression that has any
+     * @param memos memo number of each expression used by several
+     * mappings
      */
-    private void parseFieldMappings(NodeList nl) {
+    private void parseFieldMappings(NodeList nl, Map<String, Integer> contexts,
+				    Map<String, Integer> memos) {
+	// Identical expressions are compiled once, and share the result.
+	Map<String, CompiledXpath> compiled = new HashMap<>();
 	for (int i=0; i<nl.getLength(); i++) {
 	    Node node = nl.item(i);
 	    NamedNodeMap attr = node.getAttributes();
@@ -154,7 +348,23 @@ public class MappingTable {
 		Mapping newMapping;
 		switch (t.getNodeName()) {
 		    case "xpath":
-			newMapping = new XpathMapping(xpath, t.getTextContent());
+			// Expressions are compiled only once, here, so that
+			// errors in them are reported when the mapping file is
+			// loaded rather than for every record.
+			String expression = t.getTextContent();
+			try {
+			    CompiledXpath c = compiled.get(expression);
+			    if (c == null) {
+				c = compile(expression, contexts.get(expression));
+				compiled.put(expression, c);
+			    }
+			    Integer memo = memos.get(expression);
+			    newMapping = new XpathMapping(c, expression, (memo == null) ? -1 : memo);
+			} catch (XPathExpressionException e) {
+			    logger.error("Invalid XPath expression '" + expression
+				    + "' for field " + fieldName + ", skipping", e);
+			    continue;
+			}
 			break;
 		    case "string":
 			NamedNodeMap attr2 = t.getAttributes();
@@ -174,6 +384,14 @@ public class MappingTable {
 			continue;
 		}
 
+		Node profiles = t.getAttributes().getNamedItem("profiles");
+		if (profiles != null) {
+		    Set<String> ids = new HashSet<>();
+		    for (String id : profiles.getNodeValue().trim().split("\\s+"))
+			ids.add(id);
+		    newMapping.setProfiles(ids);
+		}
+
 		logger.debug("Adding "+fieldName);
 		List<Mapping> mapList = mappings.get(fieldName);
 		if (mapList == null) {
@@ -185,62 +403,132 @@ public class MappingTable {
 	}
     }
 
-    public FacetList applyMappings(Document doc, Path inFile) {
-	FacetList result = new FacetList(inFile.toString());
-	numUses++;
+    /**
+     * Apply the mappings to a parsed record.
+     *
+     * @param rec record parsed by the engine of this table
+     * @return facets extracted from the record
+     */
+    public FacetList applyMappings(Record rec) {
+	long start = System.nanoTime();
+	FacetList result = new FacetList(rec.getSource());
+	numUses.increment();
 	// Note: the error counter indicates number of metadata
 	// records with an error. So if multiple errors occur while
 	// processing a single record, the error counter is only
 	// incremented once.
 	boolean error = false;
 
-	for (Map.Entry<String, List<Mapping>> me : mappings.entrySet()) {
+	for (Map.Entry<String, List<Mapping>> me : dispatch.select(rec).entrySet()) {
 	    List<Mapping> mapList = me.getValue();
+	    long facetStart = System.nanoTime();
+	    long t = facetStart;
 	    try {
 		for (Mapping m : mapList) {
-		    if (m.mapAndAdd(doc, me.getKey(), result))
+		    // Mappings that cannot match are not evaluated (nor
+		    // counted as evaluated).
+		    if (!m.canMatch(rec))
+			continue;
+		    boolean matched = false;
+		    try {
+			matched = m.mapAndAdd(rec, me.getKey(), result);
+		    } finally {
+			long now = System.nanoTime();
+			m.recordEvaluation(now - t, matched);
+			t = now;
+		    }
+		    if (matched)
 			break;
 		}
 	    } catch (MappingException ex) {
 		logger.error(ex);
 		error = true;
 	    }
+	    facetTimes.get(me.getKey()).recordSince(facetStart);
 	}
-	if (error) numErrors++;
+	if (error) numErrors.increment();
+	mapTimes.recordSince(start);
 
 	return result;
     }
 
     public FacetList applyMappings(Path inFile) throws IOException, SAXException {
-	return applyMappings(db.parse(inFile.toFile()), inFile);
+	return applyMappings(parse(inFile));
+    }
+
+    /**
+     * Parse and map a record that is not a file of its own.
+     */
+    FacetList applyMappings(RecordInput input) throws IOException, SAXException {
+	return applyMappings(parse(input));
     }
 
-    public int getNumUses() {
-	return numUses;
+    /**
+     * Parse a record with the engine of this table.
+     */
+    Record parse(Path inFile) throws IOException, SAXException {
+	return parse(new RecordInput(inFile));
     }
-    public int getErrors() {
-	return numErrors;
+
+    Record parse(RecordInput input) throws IOException, SAXException {
+	long start = System.nanoTime();
+	Record rec = engine.parse(input);
+	parseTimes.recordSince(start);
+	return rec;
     }
 
     /**
-     * Print statistics of coverage of mappings. Mainly for debugging
-     * purposes.
+     * Time taken to parse records. Note that the stream and xslt
+     * engines evaluate most expressions while parsing.
      */
-    public void printStatistics(PrintStream out) {
-	DecimalFormat df = new DecimalFormat("0.#");
+    public LatencyHistogram getParseTimes() {
+	return parseTimes;
+    }
+
+    /** Time taken to map parsed records. */
+    public LatencyHistogram getMapTimes() {
+	return mapTimes;
+    }
+
+    /** Time taken to map each facet, indexed by facet name. */
+    public Map<String, LatencyHistogram> getFacetTimes() {
+	return Collections.unmodifiableMap(facetTimes);
+    }
+
+    public long getNumUses() {
+	return numUses.sum();
+    }
+    public long getErrors() {
+	return numErrors.sum();
+    }
 
-	out.println("----- Statistics of coverage of mappings -----");
+    /**
+     * Take a snapshot of the statistics of coverage of mappings. The
+     * counts are exact once all records have been mapped.
+     */
+    public MappingStatistics getStatistics() {
+	List<MappingStatistics.Facet> facets = new ArrayList<>();
 	for (Map.Entry<String, List<Mapping>> me : mappings.entrySet()) {
-	    List<Mapping> mapList = me.getValue();
-	    out.println("  --- Facet: " + me.getKey() + " ---");
-	    int unmapped = numUses;
-	    for (Mapping m : mapList) {
-		int n = m.getNumUses();
-		unmapped -= n;
-		out.println("\t" + n + " (" + df.format(100*(double)n/numUses) + " %) \t" + m);
+	    List<String> names = new ArrayList<>();
+	    List<Long> uses = new ArrayList<>();
+	    List<MappingStatistics.Cost> costs = new ArrayList<>();
+	    for (Mapping m : me.getValue()) {
+		names.add(m.toString());
+		uses.add(m.getNumUses());
+		LatencyHistogram h = m.getEvalTimes();
+		costs.add(new MappingStatistics.Cost(h.getCount(), m.getNumMisses(), h.getTotal(),
+						     h.getPercentile(50), h.getPercentile(99)));
 	    }
-	    if (unmapped > 0)
-		out.println("\t" + unmapped + " (" + df.format(100*(double)unmapped/numUses) + " %) \tunmapped");
+	    facets.add(new MappingStatistics.Facet(me.getKey(), names, uses, costs));
 	}
+	return new MappingStatistics(getNumUses(), getErrors(), facets);
+    }
+
+    /**
+     * Print statistics of coverage of mappings. Mainly for debugging
+     * purposes.
+     */
+    public void printStatistics(PrintStream out) {
+	getStatistics().print(out);
     }
 }
@@ -74,6 +74,15 @@ public class NSContext implements NamespaceContext {
 	prefixes.add(prefix);
     }
 
+    /**
+     * Get all namespace bindings added to this context.
+     *
+     * @return unmodifiable map of URIs indexed by prefix
+     */
+    public Map<String, String> getBindings() {
+	return Collections.unmodifiableMap(pref2ns);
+    }
+
     /**
      * Look up namespace URI based on prefix. Some of the return
      * values are fixed by the XML standard.
@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper;
+
+import net.sf.saxon.s9api.Axis;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XdmNodeKind;
+import net.sf.saxon.s9api.XdmSequenceIterator;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import java.io.IOException;
+import java.util.Arrays;
+import org.xml.sax.SAXException;
+
+/**
+ * A metadata record to which mappings are applied: a description of
+ * its source (e.g. filename) and its parsed document tree. Depending
+ * on the engine in use, the tree is either a DOM document or a Saxon
+ * XdmNode. An engine may also compute the values of (some)
+ * expressions while parsing, and only build a tree when one is
+ * actually needed.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+public class Record {
+    /**
+     * Builds the DOM tree of a record on demand.
+     */
+    interface Loader {
+	Document load() throws IOException, SAXException;
+    }
+
+    private final String source;
+    private Document doc;
+    private final XdmNode node;
+
+    /** Builder of the DOM tree, if it has not been built yet. */
+    private Loader loader;
+
+    /**
+     * Values of expressions computed by the engine while parsing,
+     * indexed by slot number.
+     */
+    private final String[] values;
+
+    /**
+     * Nodes selected by shared context paths, indexed by context
+     * number; created when the first context is resolved. A record
+     * is only mapped by one thread at a time.
+     */
+    private Object[] contexts;
+
+    /**
+     * Results of expressions used by several mappings, indexed by
+     * memo number; created when the first result is stored.
+     */
+    private String[] memo;
+
+    /**
+     * Which of the element names required by mappings occur in the
+     * record, or null if not known.
+     */
+    private long[] elementNames;
+
+    /** Expanded name of the root element, once known. */
+    private String rootName;
+
+    /**
+     * Create a record represented by a DOM tree.
+     *
+     * @param source description of the source, e.g. filename
+     * @param doc DOM tree representing the record
+     */
+    public Record(String source, Document doc) {
+	this.source = source;
+	this.doc = doc;
+	this.node = null;
+	this.values = null;
+    }
+
+    /**
+     * Create a record whose DOM tree is only built when needed.
+     *
+     * @param source description of the source, e.g. filename
+     * @param values values of expressions computed while parsing
+     * @param loader builder of the DOM tree
+     */
+    Record(String source, String[] values, Loader loader) {
+	this.source = source;
+	this.doc = null;
+	this.node = null;
+	this.values = values;
+	this.loader = loader;
+    }
+
+    /**
+     * Create a record represented by a Saxon tree.
+     *
+     * @param source description of the source, e.g. filename
+     * @param node document node of the record
+     */
+    public Record(String source, XdmNode node) {
+	this(source, node, null);
+    }
+
+    /**
+     * Create a record represented by a Saxon tree, with the values of
+     * some expressions already known.
+     *
+     * @param source description of the source, e.g. filename
+     * @param node document node of the record
+     * @param values values of expressions indexed by slot number (null
+     * where unknown), or null if there are none
+     */
+    Record(String source, XdmNode node, String[] values) {
+	this.source = source;
+	this.doc = null;
+	this.node = node;
+	this.values = values;
+    }
+
+    public String getSource() {
+	return source;
+    }
+
+    /**
+     * Get the DOM tree of this record, building it first if
+     * necessary. Returns null if the record has no DOM tree.
+     */
+    public Document getDocument() throws IOException, SAXException {
+	if (doc == null && loader != null) {
+	    doc = loader.load();
+	    loader = null;
+	}
+	return doc;
+    }
+
+    /**
+     * Get the value of an expression computed by the engine before
+     * the mappings are applied.
+     *
+     * @param slot slot number assigned by the engine
+     * @return the value, or null if it is not known
+     */
+    String getValue(int slot) {
+	return (values == null) ? null : values[slot];
+    }
+
+    /**
+     * Get the nodes selected by a shared context path, as resolved
+     * by the engine.
+     *
+     * @param context context number assigned by the engine
+     * @return the resolved context, or null if it has not been
+     * resolved yet
+     */
+    Object getContext(int context) {
+	return (contexts == null || context >= contexts.length) ? null : contexts[context];
+    }
+
+    /**
+     * Store the nodes selected by a shared context path.
+     *
+     * @param context context number assigned by the engine
+     * @param nodes the resolved context
+     */
+    void setContext(int context, Object nodes) {
+	if (contexts == null)
+	    contexts = new Object[context+1];
+	else if (context >= contexts.length)
+	    contexts = Arrays.copyOf(contexts, context+1);
+	contexts[context] = nodes;
+    }
+
+    /**
+     * Get the remembered result of an expression used by several
+     * mappings.
+     *
+     * @param index memo number assigned by the mapping table
+     * @return the result, or null if the expression has not been
+     * evaluated on this record yet
+     */
+    String getMemo(int index) {
+	return (memo == null || index >= memo.length) ? null : memo[index];
+    }
+
+    /**
+     * Remember the result of an expression used by several mappings.
+     *
+     * @param index memo number assigned by the mapping table
+     * @param value result of the expression
+     */
+    void setMemo(int index, String value) {
+	if (memo == null)
+	    memo = new String[index+1];
+	else if (index >= memo.length)
+	    memo = Arrays.copyOf(memo, index+1);
+	memo[index] = value;
+    }
+
+    /**
+     * Get the expanded name of the root element, in the form
+     * "{uri}local" (or just "local" if it is in no namespace).
+     *
+     * @return the name, or null if the record has no root element
+     * or it cannot be parsed
+     */
+    String getRootName() {
+	if (rootName == null) {
+	    if (node != null) {
+		XdmSequenceIterator it = node.axisIterator(Axis.CHILD);
+		while (it.hasNext()) {
+		    XdmNode child = (XdmNode)it.next();
+		    if (child.getNodeKind() == XdmNodeKind.ELEMENT) {
+			rootName = expandedName(child.getNodeName().getNamespaceURI(),
+						child.getNodeName().getLocalName());
+			break;
+		    }
+		}
+	    } else {
+		try {
+		    Document d = getDocument();
+		    Element e = (d == null) ? null : d.getDocumentElement();
+		    if (e != null)
+			rootName = expandedName(e.getNamespaceURI(), e.getLocalName());
+		} catch (IOException | SAXException e) {
+		    // Reported when the mappings are applied.
+		}
+	    }
+	}
+	return rootName;
+    }
+
+    /**
+     * Get the set of element names required by mappings that occur in
+     * this record.
+     *
+     * @return the set (see {@link ElementNames}), or null if the
+     * engine did not collect the names
+     */
+    long[] getElementNames() {
+	return elementNames;
+    }
+
+    /** Set the element names found by the engine while parsing. */
+    void setElementNames(long[] elementNames) {
+	this.elementNames = elementNames;
+    }
+
+    /**
+     * Set the expanded name of the root element, if the engine finds
+     * it while parsing.
+     */
+    void setRootName(String rootName) {
+	this.rootName = rootName;
+    }
+
+    /**
+     * Form an expanded name as used by {@link #getRootName()}.
+     *
+     * @param uri namespace URI; null or empty for no namespace
+     * @param localName local name
+     */
+    static String expandedName(String uri, String localName) {
+	return (uri == null || uri.isEmpty()) ? localName : "{" + uri + "}" + localName;
+    }
+
+    /** Get the Saxon tree of this record, or null if there is none. */
+    public XdmNode getNode() {
+	return node;
+    }
+}
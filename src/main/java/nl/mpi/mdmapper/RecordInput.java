@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Path;
+import org.xml.sax.InputSource;
+
+/**
+ * The input of a single record: either a file of its own, or a
+ * document held in memory, e.g. one cut out of a larger file. A
+ * record may be parsed more than once (the stream engine builds a DOM
+ * tree only when needed), so the input can be opened repeatedly.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+final class RecordInput {
+    /** Receives the records read from a file of several records. */
+    interface Handler {
+	void record(RecordInput input);
+    }
+
+    private final String source;
+    private final String systemId;
+    private final byte[] content;
+
+    /**
+     * Create the input of a record that is a file of its own.
+     *
+     * @param file input file
+     */
+    RecordInput(Path file) {
+	this(file.toString(), file.toFile().toURI().toASCIIString(), null);
+    }
+
+    /**
+     * Create the input of a record held in memory.
+     *
+     * @param source description of the source, e.g. an identifier
+     * @param systemId URI against which relative references (e.g. to
+     * DTDs) are resolved, typically that of the enclosing file
+     * @param content the serialized document; null to read it from
+     * the system ID
+     */
+    RecordInput(String source, String systemId, byte[] content) {
+	this.source = source;
+	this.systemId = systemId;
+	this.content = content;
+    }
+
+    /** Get the description of the source of the record. */
+    String getSource() {
+	return source;
+    }
+
+    /** Open the input for parsing. */
+    InputSource open() {
+	InputSource in = new InputSource(systemId);
+	if (content != null)
+	    in.setByteStream(new ByteArrayInputStream(content));
+	return in;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A machine-readable report of a run of the mapper: how long each
+ * phase took, how many records were mapped, and histograms of the
+ * time spent walking directories, parsing records, mapping each facet
+ * and saving in each output. Written as JSON.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+public class RunReport {
+    private final Map<String, Object> report;
+    private final Map<String, Object> phases;
+    private final Map<String, Object> timings;
+
+    /** Start a report of a run beginning now. */
+    public RunReport() {
+	report = new LinkedHashMap<>();
+	phases = new LinkedHashMap<>();
+	timings = new LinkedHashMap<>();
+	report.put("started", new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").format(new Date()));
+	report.put("phasesMs", phases);
+	report.put("timings", timings);
+    }
+
+    /**
+     * Add the wall time of a phase of the run.
+     *
+     * @param name name of the phase
+     * @param nanos duration in nanoseconds
+     */
+    public void addPhase(String name, long nanos) {
+	phases.put(name, nanos / 1e6);
+    }
+
+    /**
+     * Add the number of records mapped and records with errors.
+     */
+    public void addStatistics(MappingStatistics stats) {
+	report.put("records", stats.getNumUses());
+	report.put("errors", stats.getErrors());
+	List<Map<String, Object>> mappings = new ArrayList<>();
+	for (MappingStatistics.Facet f : stats.getFacets()) {
+	    for (int i=0; i<f.getMappings().size(); i++) {
+		MappingStatistics.Cost c = f.getCosts().get(i);
+		Map<String, Object> m = new LinkedHashMap<>();
+		m.put("facet", f.getName());
+		m.put("mapping", f.getMappings().get(i));
+		m.put("evaluations", c.getEvaluations());
+		m.put("misses", c.getMisses());
+		m.put("totalMs", c.getTotalNanos() / 1e6);
+		m.put("p50Us", c.getP50Nanos() / 1e3);
+		m.put("p99Us", c.getP99Nanos() / 1e3);
+		mappings.add(m);
+	    }
+	}
+	report.put("mappings", mappings);
+    }
+
+    /**
+     * Add the timings of the directory walk and of the mapping
+     * table.
+     */
+    public void addTimings(FileProcessor fp, MappingTable mt) {
+	timings.put("walk", fp.getWalkTimes().toMap());
+	timings.put("parse", mt.getParseTimes().toMap());
+	timings.put("map", mt.getMapTimes().toMap());
+	Map<String, Object> facets = new LinkedHashMap<>();
+	for (Map.Entry<String, LatencyHistogram> e : mt.getFacetTimes().entrySet())
+	    facets.put(e.getKey(), e.getValue().toMap());
+	timings.put("facets", facets);
+    }
+
+    /**
+     * Add the timings of saving records in outputs.
+     */
+    public void addTimings(TimedOutput[] outputs) {
+	Map<String, Object> m = new LinkedHashMap<>();
+	for (TimedOutput o : outputs)
+	    m.put(o.getName(), o.getTimings().toMap());
+	timings.put("outputs", m);
+    }
+
+    /**
+     * Write the report as JSON.
+     */
+    public void write(Path file) throws IOException {
+	Gson gson = new GsonBuilder().setPrettyPrinting().create();
+	try (Writer w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+	    gson.toJson(report, w);
+	    w.write("\n");
+	}
+    }
+}
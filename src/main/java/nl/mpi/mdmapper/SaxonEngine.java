@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper;
+
+import net.sf.saxon.om.NamePool;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.s9api.DocumentBuilder;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XPathCompiler;
+import net.sf.saxon.s9api.XPathExecutable;
+import net.sf.saxon.s9api.XPathSelector;
+import net.sf.saxon.s9api.XdmItem;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XdmSequenceIterator;
+import net.sf.saxon.s9api.XdmValue;
+import net.sf.saxon.tree.tiny.TinyNodeImpl;
+import net.sf.saxon.tree.tiny.TinyTree;
+import net.sf.saxon.type.Type;
+
+import nl.mpi.mdmapper.parser.Parsers;
+
+import java.util.HashMap;
+import java.util.Map;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.xpath.XPathExpressionException;
+import org.xml.sax.SAXException;
+
+/**
+ * An engine that uses Saxon's native s9api interface: records are
+ * parsed into Saxon's own (TinyTree) representation and expressions
+ * are compiled into XPathExecutables. This avoids the overhead of
+ * building a DOM and of Saxon's DOM wrapper, while producing the same
+ * results as the DOM engine.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+class SaxonEngine extends Engine {
+    protected final Processor processor;
+
+    /** Compiler for expressions; only used while holding its lock. */
+    private final XPathCompiler compiler;
+
+    /** Document builders are not thread-safe, so one per thread. */
+    private final ThreadLocal<DocumentBuilder> builder;
+
+    /** Parsers of records, one per thread. */
+    private final Parsers parsers;
+
+    /** Shared context paths, and the number of each. */
+    private final Map<String, SaxonContext> contexts;
+
+    /**
+     * Element names to look for in records, or null; and the number
+     * of each by its fingerprint.
+     */
+    private ElementNames names;
+    private Map<Integer, Integer> fingerprints;
+
+    /**
+     * Create a new Saxon engine.
+     *
+     * @param nsContext namespace bindings used in the expressions
+     * @param parsers namespace-aware parsers of records
+     */
+    SaxonEngine(NSContext nsContext, Parsers parsers) {
+	this.parsers = parsers;
+	processor = new Processor(false);
+	compiler = processor.newXPathCompiler();
+	contexts = new HashMap<>();
+	for (Map.Entry<String, String> e : nsContext.getBindings().entrySet()) {
+	    // In JAXP the empty prefix does not set a default namespace
+	    // for element names, so it is not declared here either.
+	    if (!e.getKey().isEmpty())
+		compiler.declareNamespace(e.getKey(), e.getValue());
+	}
+	builder = new ThreadLocal<DocumentBuilder>() {
+	    @Override
+	    protected DocumentBuilder initialValue() {
+		return processor.newDocumentBuilder();
+	    }
+	};
+    }
+
+    @Override
+    void collectElementNames(ElementNames names) {
+	// Names are found by their fingerprints in the name pool of
+	// the processor, shared by all trees it builds.
+	NamePool pool = processor.getUnderlyingConfiguration().getNamePool();
+	fingerprints = new HashMap<>();
+	for (Map.Entry<String, Map<String, Integer>> e : names.getNumbers().entrySet()) {
+	    for (Map.Entry<String, Integer> e2 : e.getValue().entrySet())
+		fingerprints.put(pool.allocate("", e.getKey(), e2.getKey()) & NamePool.FP_MASK,
+				 e2.getValue());
+	}
+	this.names = names;
+    }
+
+    @Override
+    Record parse(RecordInput input) throws SAXException {
+	XdmNode node = build(input);
+	Record rec = new Record(input.getSource(), node);
+	if (names != null)
+	    rec.setElementNames(findElementNames(node));
+	return rec;
+    }
+
+    /**
+     * Find which of the element names to look for occur in a tree.
+     * The node arrays of a TinyTree are scanned directly.
+     *
+     * @return set of the names, or null if the tree is not a TinyTree
+     */
+    private long[] findElementNames(XdmNode node) {
+	NodeInfo info = node.getUnderlyingNode();
+	if (!(info instanceof TinyNodeImpl))
+	    return null;
+	TinyTree tree = ((TinyNodeImpl)info).getTree();
+	byte[] kinds = tree.getNodeKindArray();
+	int[] nameCodes = tree.getNameCodeArray();
+	long[] set = names.newSet();
+	for (int i=0; i<tree.getNumberOfNodes(); i++) {
+	    if (kinds[i] == Type.ELEMENT) {
+		Integer name = fingerprints.get(nameCodes[i] & NamePool.FP_MASK);
+		if (name != null)
+		    ElementNames.add(set, name);
+	    }
+	}
+	return set;
+    }
+
+    /**
+     * Parse the input of a record into a Saxon tree.
+     */
+    XdmNode build(RecordInput input) throws SAXException {
+	try {
+	    // Saxon builds the tree from the events of the parser of
+	    // this thread, so that entities are resolved the same way
+	    // as with the other engines.
+	    return builder.get().build(new SAXSource(parsers.getXMLReader(), input.open()));
+	} catch (SaxonApiException e) {
+	    throw new SAXException(e);
+	}
+    }
+
+    @Override
+    CompiledXpath compile(String expression) throws XPathExpressionException {
+	return new SaxonXpath(compileExecutable(expression));
+    }
+
+    @Override
+    CompiledXpath compile(String expression, String context, String relative)
+	throws XPathExpressionException {
+	SaxonContext c = contexts.get(context);
+	if (c == null) {
+	    c = new SaxonContext(contexts.size(), compileExecutable(context));
+	    contexts.put(context, c);
+	}
+	return new RelativeXpath(c, compileExecutable(relative));
+    }
+
+    private XPathExecutable compileExecutable(String expression) throws XPathExpressionException {
+	try {
+	    synchronized (compiler) {
+		return compiler.compile(expression);
+	    }
+	} catch (SaxonApiException e) {
+	    throw new XPathExpressionException(e);
+	}
+    }
+
+    /**
+     * Evaluate an expression and get the first item of the result.
+     *
+     * @return the first item, or null if the result is empty
+     */
+    private static XdmItem evaluateSingle(XPathExecutable exec, XdmItem context)
+	throws XPathExpressionException {
+	try {
+	    XPathSelector sel = exec.load();
+	    sel.setContextItem(context);
+	    return sel.evaluateSingle();
+	} catch (SaxonApiException e) {
+	    throw new XPathExpressionException(e);
+	}
+    }
+
+    /**
+     * A compiled s9api expression. Executables are thread-safe; a new
+     * selector is loaded for each evaluation.
+     */
+    private static class SaxonXpath implements CompiledXpath {
+	private final XPathExecutable exec;
+
+	SaxonXpath(XPathExecutable exec) {
+	    this.exec = exec;
+	}
+
+	@Override
+	public String evaluate(Record rec) throws XPathExpressionException {
+	    XdmItem item = evaluateSingle(exec, rec.getNode());
+	    return (item == null) ? "" : item.getStringValue();
+	}
+    }
+
+    /**
+     * A context path shared by several expressions. The nodes it
+     * selects are found once per record.
+     */
+    private static class SaxonContext {
+	private final int number;
+	private final XPathExecutable exec;
+
+	SaxonContext(int number, XPathExecutable exec) {
+	    this.number = number;
+	    this.exec = exec;
+	}
+
+	XdmValue resolve(Record rec) throws XPathExpressionException {
+	    XdmValue nodes = (XdmValue)rec.getContext(number);
+	    if (nodes == null) {
+		try {
+		    XPathSelector sel = exec.load();
+		    sel.setContextItem(rec.getNode());
+		    nodes = sel.evaluate();
+		} catch (SaxonApiException e) {
+		    throw new XPathExpressionException(e);
+		}
+		rec.setContext(number, nodes);
+	    }
+	    return nodes;
+	}
+    }
+
+    /**
+     * The rest of a location path whose first steps are a shared
+     * context. The first item it selects is the first item selected
+     * from the first context node that has any.
+     */
+    private static class RelativeXpath implements CompiledXpath {
+	private final SaxonContext context;
+	private final XPathExecutable exec;
+
+	RelativeXpath(SaxonContext context, XPathExecutable exec) {
+	    this.context = context;
+	    this.exec = exec;
+	}
+
+	@Override
+	public String evaluate(Record rec) throws XPathExpressionException {
+	    XdmSequenceIterator it = context.resolve(rec).iterator();
+	    while (it.hasNext()) {
+		XdmItem item = evaluateSingle(exec, it.next());
+		if (item != null)
+		    return item.getStringValue();
+	    }
+	    return "";
+	}
+    }
+}
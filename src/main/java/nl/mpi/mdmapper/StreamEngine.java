@@ -0,0 +1,407 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper;
+
+import nl.mpi.mdmapper.parser.Parsers;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.xpath.XPathExpressionException;
+
+import org.w3c.dom.Document;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.DefaultHandler2;
+
+/**
+ * An engine that finds the values of simple paths (see
+ * LocationPath.isSimple) in a single streaming (SAX) pass over each
+ * record, without building a tree. All simple paths of the mapping
+ * table are merged into a trie keyed by element name, so each start
+ * tag costs one lookup no matter how many paths there are.
+ * <p>
+ * Other expressions are handed to a DOM engine. The DOM tree of a
+ * record is only built if the mapping actually reaches such an
+ * expression, i.e. if no simple path earlier in the same field
+ * matched.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+class StreamEngine extends Engine {
+    private static final Logger logger = Logger.getLogger(StreamEngine.class);
+
+    private static final String LEXICAL_HANDLER = "http://xml.org/sax/properties/lexical-handler";
+
+    private final NSContext nsContext;
+
+    /** Engine for the expressions that cannot be streamed. */
+    private final DomEngine fallback;
+
+    /** Parsers of records, one per thread. */
+    private final Parsers parsers;
+
+    /** Root of the trie of simple paths. */
+    private final Node root;
+
+    /** Number of slots (simple paths) allocated so far. */
+    private int numSlots;
+
+    /** Element names to look for while parsing, or null. */
+    private ElementNames names;
+
+    /**
+     * A node of the trie, corresponding to an element path. Lists the
+     * slots of the paths that end here.
+     */
+    private static class Node {
+	/** Child nodes, indexed by namespace URI and local name. */
+	final Map<String, Map<String, Node>> children = new HashMap<>();
+	/** Paths selecting this element. */
+	final List<Integer> elementSlots = new ArrayList<>();
+	/** Paths selecting the text() children of this element. */
+	final List<Integer> textSlots = new ArrayList<>();
+	/** Paths selecting an attribute, indexed by URI and local name. */
+	final Map<String, Map<String, List<Integer>>> attributeSlots = new HashMap<>();
+
+	Node child(String uri, String localName) {
+	    Map<String, Node> m = children.get(uri);
+	    return (m == null) ? null : m.get(localName);
+	}
+    }
+
+    /**
+     * Create a new streaming engine.
+     *
+     * @param nsContext namespace bindings used in the expressions
+     * @param parsers namespace-aware parsers of records
+     */
+    StreamEngine(NSContext nsContext, Parsers parsers) {
+	this.nsContext = nsContext;
+	this.parsers = parsers;
+	fallback = new DomEngine(nsContext, parsers);
+	root = new Node();
+	numSlots = 0;
+    }
+
+    @Override
+    CompiledXpath compile(String expression) throws XPathExpressionException {
+	// Always compile for the DOM engine too, so that errors are
+	// reported the same way whichever way the expression is
+	// evaluated.
+	return stream(expression, fallback.compile(expression));
+    }
+
+    @Override
+    CompiledXpath compile(String expression, String context, String relative)
+	throws XPathExpressionException {
+	return stream(expression, fallback.compile(expression, context, relative));
+    }
+
+    /**
+     * Stream an expression if it is a simple path.
+     *
+     * @param dom the expression compiled by the DOM engine, used if
+     * it cannot be streamed
+     */
+    private CompiledXpath stream(String expression, CompiledXpath dom) {
+	LocationPath path = LocationPath.parse(expression);
+	if (path == null || !path.isSimple())
+	    return dom;
+	Integer slot = addPath(path);
+	if (slot == null)
+	    return dom;
+	logger.debug("Streaming " + expression);
+	return new StreamedXpath(slot);
+    }
+
+    /**
+     * Add a simple path to the trie.
+     *
+     * @return the slot assigned to the path, or null if the path
+     * cannot be streamed after all
+     */
+    private Integer addPath(LocationPath path) {
+	// An unprefixed name means "no namespace" in JAXP; refuse
+	// paths where a binding of the empty prefix could make that
+	// ambiguous.
+	boolean defaultBound = nsContext.getBindings().containsKey("");
+
+	// Resolve all names first, so that nothing is added for a path
+	// that is then rejected.
+	List<LocationPath.Step> steps = path.getSteps();
+	String[] uris = new String[steps.size()];
+	for (int i=0; i<steps.size(); i++) {
+	    LocationPath.Step s = steps.get(i);
+	    if (s.kind == LocationPath.Kind.TEXT)
+		continue;
+	    if (s.prefix.isEmpty()) {
+		if (defaultBound)
+		    return null;
+		uris[i] = "";
+	    } else {
+		uris[i] = nsContext.getNamespaceURI(s.prefix);
+	    }
+	}
+
+	Integer slot = numSlots++;
+	Node n = root;
+	for (int i=0; i<steps.size(); i++) {
+	    LocationPath.Step s = steps.get(i);
+	    switch (s.kind) {
+		case ELEMENT:
+		    Map<String, Node> m = n.children.get(uris[i]);
+		    if (m == null) {
+			m = new HashMap<>();
+			n.children.put(uris[i], m);
+		    }
+		    Node child = m.get(s.localName);
+		    if (child == null) {
+			child = new Node();
+			m.put(s.localName, child);
+		    }
+		    n = child;
+		    if (i == steps.size()-1)
+			n.elementSlots.add(slot);
+		    break;
+		case ATTRIBUTE:
+		    Map<String, List<Integer>> a = n.attributeSlots.get(uris[i]);
+		    if (a == null) {
+			a = new HashMap<>();
+			n.attributeSlots.put(uris[i], a);
+		    }
+		    List<Integer> slots = a.get(s.localName);
+		    if (slots == null) {
+			slots = new ArrayList<>();
+			a.put(s.localName, slots);
+		    }
+		    slots.add(slot);
+		    break;
+		case TEXT:
+		    n.textSlots.add(slot);
+		    break;
+	    }
+	}
+	return slot;
+    }
+
+    @Override
+    void collectElementNames(ElementNames names) {
+	this.names = names;
+    }
+
+    @Override
+    Record parse(final RecordInput input) throws IOException, SAXException {
+	Handler h = new Handler(numSlots);
+	XMLReader r = parsers.getXMLReader();
+	r.setContentHandler(h);
+	r.setProperty(LEXICAL_HANDLER, h);
+	r.parse(input.open());
+	Record rec = new Record(input.getSource(), h.values, new Record.Loader() {
+	    @Override
+	    public Document load() throws IOException, SAXException {
+		return fallback.load(input);
+	    }
+	});
+	rec.setRootName(h.rootName);
+	rec.setElementNames(h.elementNames);
+	return rec;
+    }
+
+    /**
+     * A simple path, whose value is found by the streaming pass.
+     */
+    private static class StreamedXpath implements CompiledXpath {
+	private final int slot;
+
+	StreamedXpath(int slot) {
+	    this.slot = slot;
+	}
+
+	@Override
+	public String evaluate(Record rec) {
+	    return rec.getValue(slot);
+	}
+    }
+
+    /**
+     * Collection of the text of an element (or of its first text
+     * node child) that is the first match of a path.
+     */
+    private static class Capture {
+	final int slot;
+	/** Depth of the element whose text is collected. */
+	final int depth;
+	final StringBuilder text = new StringBuilder();
+	/** For text() paths: whether a text node has been seen. */
+	boolean inText;
+
+	Capture(int slot, int depth) {
+	    this.slot = slot;
+	    this.depth = depth;
+	}
+    }
+
+    /**
+     * SAX handler for one record. It implements XPath semantics: the
+     * value of a path is the string value of the first selected node
+     * in document order, or the empty string if there is none.
+     */
+    private class Handler extends DefaultHandler2 {
+	/** Values of the paths, indexed by slot; null until found. */
+	final String[] values;
+
+	/** Expanded name of the root element. */
+	String rootName;
+
+	/** Required element names found, or null if not collected. */
+	final long[] elementNames = (names == null) ? null : names.newSet();
+
+	/** Trie nodes of the open elements (null if none matches). */
+	private final List<Node> stack = new ArrayList<>();
+
+	/** Elements whose string value is being collected. */
+	private final List<Capture> elements = new ArrayList<>();
+
+	/** Elements whose first text node child is being collected. */
+	private final List<Capture> texts = new ArrayList<>();
+
+	Handler(int numSlots) {
+	    values = new String[numSlots];
+	}
+
+	@Override
+	public void startElement(String uri, String localName, String qName, Attributes atts) {
+	    endText();
+	    if (rootName == null)
+		rootName = Record.expandedName(uri, localName);
+	    if (elementNames != null) {
+		int name = names.get(uri, localName);
+		if (name >= 0)
+		    ElementNames.add(elementNames, name);
+	    }
+	    Node parent = stack.isEmpty() ? root : stack.get(stack.size()-1);
+	    Node n = (parent == null) ? null : parent.child(uri, localName);
+	    stack.add(n);
+	    if (n == null)
+		return;
+
+	    int depth = stack.size();
+	    for (int slot : n.elementSlots) {
+		if (values[slot] == null)
+		    elements.add(new Capture(slot, depth));
+	    }
+	    for (int slot : n.textSlots) {
+		if (values[slot] == null)
+		    texts.add(new Capture(slot, depth));
+	    }
+	    for (Map.Entry<String, Map<String, List<Integer>>> e : n.attributeSlots.entrySet()) {
+		for (Map.Entry<String, List<Integer>> e2 : e.getValue().entrySet()) {
+		    String value = atts.getValue(e.getKey(), e2.getKey());
+		    if (value == null)
+			continue;
+		    for (int slot : e2.getValue()) {
+			if (values[slot] == null)
+			    values[slot] = value;
+		    }
+		}
+	    }
+	}
+
+	@Override
+	public void endElement(String uri, String localName, String qName) {
+	    endText();
+	    int depth = stack.size();
+	    for (int i=elements.size()-1; i>=0; i--) {
+		Capture c = elements.get(i);
+		if (c.depth == depth) {
+		    values[c.slot] = c.text.toString();
+		    elements.remove(i);
+		}
+	    }
+	    // An element without text children: try the next one.
+	    for (int i=texts.size()-1; i>=0; i--) {
+		if (texts.get(i).depth == depth)
+		    texts.remove(i);
+	    }
+	    stack.remove(depth-1);
+	}
+
+	@Override
+	public void characters(char[] ch, int start, int length) {
+	    for (Capture c : elements)
+		c.text.append(ch, start, length);
+	    int depth = stack.size();
+	    for (Capture c : texts) {
+		if (c.depth == depth) {
+		    c.text.append(ch, start, length);
+		    c.inText = true;
+		}
+	    }
+	}
+
+	@Override
+	public void ignorableWhitespace(char[] ch, int start, int length) {
+	    // The DOM keeps such whitespace too.
+	    characters(ch, start, length);
+	}
+
+	@Override
+	public void processingInstruction(String target, String data) {
+	    endText();
+	}
+
+	@Override
+	public void comment(char[] ch, int start, int length) {
+	    endText();
+	}
+
+	@Override
+	public void endDocument() {
+	    for (int i=0; i<values.length; i++) {
+		if (values[i] == null)
+		    values[i] = "";
+	    }
+	}
+
+	/**
+	 * A text node ends at any markup other than CDATA section
+	 * boundaries and entity references. If one was being collected
+	 * for the current element, it is the value of its path.
+	 */
+	private void endText() {
+	    if (texts.isEmpty())
+		return;
+	    int depth = stack.size();
+	    for (int i=texts.size()-1; i>=0; i--) {
+		Capture c = texts.get(i);
+		if (c.depth == depth && c.inText) {
+		    values[c.slot] = c.text.toString();
+		    texts.remove(i);
+		}
+	    }
+	}
+    }
+}
@@ -22,19 +22,27 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import nl.mpi.mdmapper.output.FacetList;
 import org.apache.log4j.Logger;
-import org.w3c.dom.Document;
 
 /**
  * A mapping rule for an individual field (facet) that always returns
  * a string, irrespective of the content of the source. Variables can be
  * embedded in the string, with syntax "${variable}", in which case they
- * will be expanded (at the time the mapping is applied).
+ * will be expanded. Configuration variables are expanded once, when the
+ * mapping is created; only ${filename} is filled in for each record.
  *
  * @author Lari Lampen (MPI-PL)
  */
 public class StringMapping extends Mapping {
     private static final Logger logger = Logger.getLogger(StringMapping.class);
 
+    private static final Pattern variable = Pattern.compile("\\$\\{([^\\}]*)\\}");
+
+    /**
+     * Stands for ${filename} in the expanded string. It cannot occur
+     * in the configuration, since XML does not allow it.
+     */
+    private static final String FILENAME = "\u0000";
+
     private final String string;
 
     /**
@@ -42,20 +50,26 @@ public class StringMapping extends Mapping {
      */
     private Configuration vars;
 
+    /**
+     * The expanded string split at each ${filename}, or null if there
+     * is no expansion.
+     */
+    private final String[] parts;
+
     /**
      * Create a new string mapping with the given literal string.
      */
     public StringMapping(String string) {
 	this.string = string;
 	this.vars = null;
+	this.parts = null;
     }
 
     /**
      * Create a new string mapping with the specified string, with variable
      * expansion performed from the given set of variable definitions. Note
-     * that expansion occurs at the time of call (not time of creating the
-     * StringMapping object) and reflects the values of the variables at that
-     * time.
+     * that expansion occurs at the time of creating the StringMapping
+     * object and reflects the values of the variables at that time.
      *
      * @param string the base string, possibly containing ${var} references
      * @param variables configuration that defines values of variables
@@ -63,12 +77,16 @@ public class StringMapping extends Mapping {
     public StringMapping(String string, Configuration variables) {
 	this.string = string;
 	this.vars = variables;
+	if (variables == null || string == null)
+	    this.parts = null;
+	else
+	    this.parts = expand(string, variables, true, FILENAME).split(FILENAME, -1);
     }
 
     @Override
-    public boolean mapAndAdd(Document doc, String facetName, FacetList fl)
+    public boolean mapAndAdd(Record rec, String facetName, FacetList fl)
 	    throws MappingException {
-	String s = apply(doc, fl);
+	String s = apply(rec, fl);
 
 	if (!s.isEmpty()) {
 	    fl.add(facetName, s);
@@ -78,21 +96,35 @@ public class StringMapping extends Mapping {
     }
 
     @Override
-    public String apply(Document doc) throws MappingException {
-	return apply(doc, null);
+    public String apply(Record rec) throws MappingException {
+	return apply(rec, null);
     }
 
     /**
-     * Apply this mapping to the specified document tree.
+     * Apply this mapping to the specified record.
      *
-     * @param doc DOM tree representing a metadata record
+     * @param rec parsed metadata record
      * @param fl facet list representing the source context
      * @return result of mapping as a string, or the empty string if
      * there is no other result.
      */
-    public String apply(Document doc, FacetList fl) throws MappingException {
-	numUses++;
-	return expand(string, vars, fl);
+    public String apply(Record rec, FacetList fl) throws MappingException {
+	countUse();
+	if (parts == null)
+	    return string;
+	if (fl == null)
+	    return expand(string, vars, null);
+	if (parts.length == 1)
+	    return parts[0];
+
+	String filename = fl.getSource();
+	StringBuilder sb = new StringBuilder(parts[0]);
+	for (int i=1; i<parts.length; i++) {
+	    if (filename != null)
+		sb.append(filename);
+	    sb.append(parts[i]);
+	}
+	return sb.toString();
     }
 
     /**
@@ -109,19 +141,29 @@ public class StringMapping extends Mapping {
 	    FacetList fl) {
 	if (variables == null || str == null)
 	    return str;
+	return expand(str, variables, fl != null, (fl == null) ? null : fl.getSource());
+    }
 
+    /**
+     * Perform variable expansion on the string.
+     *
+     * @param useFilename whether ${filename} is expanded into the given
+     * file name rather than as a variable
+     * @param filename value of ${filename}
+     */
+    private static String expand(String str, Configuration variables,
+	    boolean useFilename, String filename) {
 	String res = str;
 
-	Pattern pattern = Pattern.compile("\\$\\{([^\\}]*)\\}");
 	for (;;) {
-	    Matcher m = pattern.matcher(res);
+	    Matcher m = variable.matcher(res);
 	    if (!m.find())
 		break;
 
 	    String varName = m.group(1);
 	    String val;
-	    if ("filename".equals(varName) && fl != null) {
-		val = fl.getSource();
+	    if ("filename".equals(varName) && useFilename) {
+		val = filename;
 	    } else {
 		val = variables.getParam(varName);
 	    }
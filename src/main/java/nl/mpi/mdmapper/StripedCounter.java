@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that many threads can increment concurrently without
+ * contending for a single memory location. Each thread adds to one
+ * of several cells (chosen by thread id) and reading the counter sums
+ * all cells. This is the same idea as java.util.concurrent.LongAdder,
+ * which is not available in Java 7.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+public class StripedCounter {
+    /**
+     * Distance between cells in the underlying array, in longs, so
+     * that each cell sits in its own cache line.
+     */
+    private static final int SPACING = 8;
+
+    /** Number of cells; a power of two. */
+    private static final int NUM_CELLS;
+    static {
+	int n = 1;
+	while (n < 2 * Runtime.getRuntime().availableProcessors() && n < 64)
+	    n <<= 1;
+	NUM_CELLS = n;
+    }
+
+    private final AtomicLongArray cells;
+
+    /** Create a new counter with value zero. */
+    public StripedCounter() {
+	cells = new AtomicLongArray(NUM_CELLS * SPACING);
+    }
+
+    /** Increment the counter by one. */
+    public void increment() {
+	add(1);
+    }
+
+    /**
+     * Add the given amount to the counter.
+     *
+     * @param x amount to add
+     */
+    public void add(long x) {
+	cells.getAndAdd(cell(), x);
+    }
+
+    /**
+     * Get the current value of the counter. The result is exact if
+     * no thread is updating the counter at the same time.
+     *
+     * @return sum of all increments so far
+     */
+    public long sum() {
+	long sum = 0;
+	for (int i = 0; i < NUM_CELLS; i++)
+	    sum += cells.get(i * SPACING);
+	return sum;
+    }
+
+    /**
+     * Select the cell of the calling thread. Thread ids are assigned
+     * sequentially, so worker threads created together end up in
+     * different cells.
+     */
+    private static int cell() {
+	long id = Thread.currentThread().getId();
+	return ((int)id & (NUM_CELLS - 1)) * SPACING;
+    }
+}
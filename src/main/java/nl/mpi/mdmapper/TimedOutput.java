@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper;
+
+import nl.mpi.mdmapper.output.FacetList;
+import nl.mpi.mdmapper.output.Output;
+
+/**
+ * An output that measures how long saving each record takes in
+ * another output.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+public class TimedOutput implements Output {
+    private final Output output;
+    private final String name;
+    private final LatencyHistogram timings;
+
+    /**
+     * @param output the output to measure
+     * @param name name of the output in reports
+     */
+    public TimedOutput(Output output, String name) {
+	this.output = output;
+	this.name = name;
+	timings = new LatencyHistogram();
+    }
+
+    public String getName() {
+	return name;
+    }
+
+    /** Durations of saving records. */
+    public LatencyHistogram getTimings() {
+	return timings;
+    }
+
+    @Override
+    public void save(FacetList fl) {
+	long start = System.nanoTime();
+	output.save(fl);
+	timings.recordSince(start);
+    }
+
+    @Override
+    public void remove(String source) {
+	output.remove(source);
+    }
+
+    @Override
+    public void close() {
+	output.close();
+    }
+}
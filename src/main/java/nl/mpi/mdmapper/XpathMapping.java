@@ -20,9 +20,6 @@ package nl.mpi.mdmapper;
 
 import org.apache.log4j.Logger;
 
-import org.w3c.dom.Document;
-
-import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathExpressionException;
 
 /**
@@ -33,21 +30,94 @@ import javax.xml.xpath.XPathExpressionException;
 public class XpathMapping extends Mapping {
     private static final Logger logger = Logger.getLogger(XpathMapping.class);
 
-    private XPath xpath;
-    private String expression;
+    /** The compiled form of the expression, used for evaluation. */
+    private final CompiledXpath compiled;
+
+    /** Source text of the expression (for statistics and error messages). */
+    private final String expression;
+
+    /**
+     * Memo number of the result of the expression, if other mappings
+     * use the same expression; -1 otherwise.
+     */
+    private final int memo;
+
+    /**
+     * Element names without which the expression selects nothing,
+     * as a set of {@link ElementNames}; null if there are none.
+     */
+    private long[] requiredNames;
 
-    public XpathMapping(XPath xpath, String expression) {
-	this.xpath = xpath;
+    /**
+     * Create a new XPath mapping.
+     *
+     * @param compiled the expression, compiled by the engine in use
+     * @param expression source text of the expression
+     */
+    XpathMapping(CompiledXpath compiled, String expression) {
+	this(compiled, expression, -1);
+    }
+
+    /**
+     * Create a new XPath mapping whose expression is also used by
+     * other mappings. The expression is evaluated only once per
+     * record, by whichever of the mappings is applied first.
+     *
+     * @param compiled the expression, compiled by the engine in use
+     * @param expression source text of the expression
+     * @param memo memo number shared by the mappings, or -1 if the
+     * expression is not shared
+     */
+    XpathMapping(CompiledXpath compiled, String expression, int memo) {
+	this.compiled = compiled;
 	this.expression = expression;
+	this.memo = memo;
+    }
+
+    /**
+     * Set the element names that a record must contain for the
+     * expression to select anything.
+     *
+     * @param requiredNames set of names, or null if there are none
+     */
+    void setRequiredNames(long[] requiredNames) {
+	this.requiredNames = requiredNames;
     }
 
     @Override
-    public String apply(Document doc) throws MappingException {
+    boolean canMatch(Record rec) {
+	if (requiredNames == null)
+	    return true;
+	long[] present = rec.getElementNames();
+	return present == null || ElementNames.containsAll(present, requiredNames);
+    }
+
+    /** Get the source text of the expression. */
+    String getExpression() {
+	return expression;
+    }
+
+    /** Get the compiled form of the expression. */
+    CompiledXpath getCompiled() {
+	return compiled;
+    }
+
+    @Override
+    public String apply(Record rec) throws MappingException {
 	try {
-	    String s = xpath.evaluate(expression, doc);
+	    String s;
+	    if (memo < 0) {
+		s = compiled.evaluate(rec);
+	    } else {
+		s = rec.getMemo(memo);
+		if (s == null) {
+		    s = compiled.evaluate(rec);
+		    rec.setMemo(memo, s);
+		}
+	    }
 	    s = s.trim();
 	    if (!s.isEmpty()) {
-		numUses++;
+		countUse();
 		return s;
 	    }
 	} catch (XPathExpressionException e) {
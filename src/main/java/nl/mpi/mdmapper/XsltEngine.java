@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper;
+
+import nl.mpi.mdmapper.parser.Parsers;
+
+import org.apache.log4j.Logger;
+
+import net.sf.saxon.s9api.Axis;
+import net.sf.saxon.s9api.QName;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XdmDestination;
+import net.sf.saxon.s9api.XdmItem;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XdmNodeKind;
+import net.sf.saxon.s9api.XdmSequenceIterator;
+import net.sf.saxon.s9api.XsltExecutable;
+import net.sf.saxon.s9api.XsltTransformer;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.xpath.XPathExpressionException;
+import org.xml.sax.SAXException;
+
+/**
+ * An engine that compiles the whole mapping table into a single XSLT
+ * stylesheet, which is executed once per record. For each facet the
+ * stylesheet tries the XPath mappings in order and reports the first
+ * one with a non-empty result, so Saxon can optimise across all the
+ * expressions and there is no per-mapping call overhead.
+ * <p>
+ * The results are only used to answer the mappings' evaluations, so
+ * the mapping logic itself (string mappings, statistics) is
+ * unchanged. If the stylesheet fails on a record, e.g. because one
+ * expression raises a dynamic error, the mappings of that record are
+ * evaluated one by one as with the Saxon engine, so that the error is
+ * reported for the right facet only.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+class XsltEngine extends SaxonEngine {
+    private static final Logger logger = Logger.getLogger(XsltEngine.class);
+
+    private static final QName SLOT = new QName("s");
+    private static final QName CHAIN = new QName("c");
+
+    private final NSContext nsContext;
+
+    /** Source text of the expressions, indexed by slot. */
+    private final List<String> expressions;
+
+    /**
+     * For each facet, the slots of its XPath mappings in order. An
+     * expression used by several mappings has a single slot.
+     */
+    private final List<int[]> chains;
+
+    /**
+     * Number of mappings using each slot. Expressions not used by
+     * any mapping are not in the stylesheet.
+     */
+    private int[] uses;
+
+    /** The compiled stylesheet, or null if it could not be built. */
+    private XsltExecutable stylesheet;
+
+    /** Transformers can be reused, but not concurrently. */
+    private final ThreadLocal<XsltTransformer> transformer;
+
+    /**
+     * Create a new XSLT engine.
+     *
+     * @param nsContext namespace bindings used in the expressions
+     * @param parsers namespace-aware parsers of records
+     */
+    XsltEngine(NSContext nsContext, Parsers parsers) {
+	super(nsContext, parsers);
+	this.nsContext = nsContext;
+	expressions = new ArrayList<>();
+	chains = new ArrayList<>();
+	transformer = new ThreadLocal<XsltTransformer>() {
+	    @Override
+	    protected XsltTransformer initialValue() {
+		return stylesheet.load();
+	    }
+	};
+    }
+
+    @Override
+    CompiledXpath compile(String expression) throws XPathExpressionException {
+	return addExpression(expression, super.compile(expression));
+    }
+
+    /**
+     * Shared contexts are only used when evaluating mappings one by
+     * one; the stylesheet evaluates whole expressions.
+     */
+    @Override
+    CompiledXpath compile(String expression, String context, String relative)
+	throws XPathExpressionException {
+	return addExpression(expression, super.compile(expression, context, relative));
+    }
+
+    private CompiledXpath addExpression(String expression, CompiledXpath single) {
+	expressions.add(expression);
+	return new XsltXpath(expressions.size()-1, single);
+    }
+
+    @Override
+    void prepare(Map<String, List<Mapping>> mappings) {
+	uses = new int[expressions.size()];
+	for (List<Mapping> mapList : mappings.values()) {
+	    List<Integer> chain = new ArrayList<>();
+	    for (Mapping m : mapList) {
+		if (m instanceof XpathMapping) {
+		    CompiledXpath c = ((XpathMapping)m).getCompiled();
+		    int slot = ((XsltXpath)c).slot;
+		    uses[slot]++;
+		    chain.add(slot);
+		}
+	    }
+	    int[] slots = new int[chain.size()];
+	    for (int i=0; i<slots.length; i++)
+		slots[i] = chain.get(i);
+	    chains.add(slots);
+	}
+
+	String xsl = generateStylesheet();
+	logger.debug("Generated stylesheet:\n" + xsl);
+	try {
+	    stylesheet = processor.newXsltCompiler().compile(new StreamSource(new StringReader(xsl)));
+	} catch (SaxonApiException e) {
+	    logger.error("Cannot compile mapping table into a stylesheet;"
+			 + " evaluating mappings one by one instead", e);
+	}
+    }
+
+    /**
+     * Generate a stylesheet that outputs, for each facet, an element
+     * &lt;v s="slot" c="facet"&gt; containing the (untrimmed) value
+     * of the first of its XPath mappings whose value is not blank.
+     * Expressions used by several facets are bound to variables of
+     * the whole template, so that they are evaluated only once.
+     */
+    private String generateStylesheet() {
+	StringBuilder sb = new StringBuilder();
+	sb.append("<xsl:stylesheet version=\"2.0\"");
+	sb.append(" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\"");
+	for (Map.Entry<String, String> e : nsContext.getBindings().entrySet()) {
+	    String prefix = e.getKey();
+	    if (prefix.isEmpty() || prefix.equals("xsl") || prefix.equals("xml"))
+		continue;
+	    sb.append(" xmlns:").append(prefix).append("=\"").append(escape(e.getValue())).append('"');
+	}
+	sb.append(" exclude-result-prefixes=\"#all\">\n");
+	sb.append("<xsl:template match=\"/\">\n");
+	for (int slot=0; slot<uses.length; slot++) {
+	    if (uses[slot] > 1)
+		generateVariable(sb, slot);
+	}
+	sb.append("<r>\n");
+	for (int i=0; i<chains.size(); i++)
+	    generateChain(sb, i, 0);
+	sb.append("</r>\n</xsl:template>\n</xsl:stylesheet>\n");
+	return sb.toString();
+    }
+
+    private void generateChain(StringBuilder sb, int chainIndex, int pos) {
+	int[] chain = chains.get(chainIndex);
+	if (pos >= chain.length)
+	    return;
+	int slot = chain[pos];
+	String var = "v" + slot;
+	if (uses[slot] == 1)
+	    generateVariable(sb, slot);
+	sb.append("<xsl:choose><xsl:when test=\"normalize-space($").append(var).append(")\">");
+	sb.append("<v s=\"").append(slot).append("\" c=\"").append(chainIndex)
+	    .append("\"><xsl:value-of select=\"$").append(var)
+	    .append("\"/></v></xsl:when>\n<xsl:otherwise>\n");
+	generateChain(sb, chainIndex, pos+1);
+	sb.append("</xsl:otherwise></xsl:choose>\n");
+    }
+
+    private void generateVariable(StringBuilder sb, int slot) {
+	// Same as the other engines: the string value of the first item.
+	sb.append("<xsl:variable name=\"v").append(slot).append("\" select=\"string((")
+	    .append(escape(expressions.get(slot))).append(")[1])\"/>\n");
+    }
+
+    /** Escape a string for use in an attribute value. */
+    private static String escape(String s) {
+	return s.replace("&", "&amp;").replace("<", "&lt;").replace("\"", "&quot;")
+	    .replace("\n", "&#10;").replace("\r", "&#13;").replace("\t", "&#9;");
+    }
+
+    @Override
+    Record parse(RecordInput input) throws SAXException {
+	XdmNode node = build(input);
+	return new Record(input.getSource(), node, run(node, input.getSource()));
+    }
+
+    /**
+     * Run the stylesheet on a record.
+     *
+     * @return values of the expressions indexed by slot (null where
+     * not evaluated), or null if the stylesheet failed
+     */
+    private String[] run(XdmNode node, String source) {
+	if (stylesheet == null)
+	    return null;
+
+	XdmNode result;
+	try {
+	    XsltTransformer t = transformer.get();
+	    XdmDestination dest = new XdmDestination();
+	    t.setInitialContextNode(node);
+	    t.setDestination(dest);
+	    t.transform();
+	    result = dest.getXdmNode();
+	} catch (SaxonApiException e) {
+	    logger.debug("Stylesheet failed on " + source + ", evaluating mappings one by one: "
+			 + e.getMessage());
+	    return null;
+	}
+
+	// Mappings before the first match of each facet are known to
+	// be blank; those after it were not evaluated. A facet without
+	// any match has no element in the result. A slot shared by
+	// several facets may be left unknown by one of them even though
+	// another found its value, but it is never wrongly blank.
+	String[] values = new String[expressions.size()];
+	for (int i=0; i<values.length; i++)
+	    values[i] = (uses[i] > 0) ? "" : null;
+	XdmSequenceIterator it = result.axisIterator(Axis.DESCENDANT);
+	while (it.hasNext()) {
+	    XdmItem item = it.next();
+	    XdmNode v = (XdmNode)item;
+	    if (v.getNodeKind() != XdmNodeKind.ELEMENT || v.getAttributeValue(SLOT) == null)
+		continue;
+	    int slot = Integer.parseInt(v.getAttributeValue(SLOT));
+	    values[slot] = v.getStringValue();
+	    int[] chain = chains.get(Integer.parseInt(v.getAttributeValue(CHAIN)));
+	    int pos = 0;
+	    while (chain[pos] != slot)
+		pos++;
+	    for (int i = pos+1; i < chain.length; i++) {
+		if (chain[i] != slot)
+		    values[chain[i]] = null;
+	    }
+	}
+	return values;
+    }
+
+    /**
+     * An expression whose value is normally computed by the
+     * stylesheet, with individual evaluation as a fallback.
+     */
+    private static class XsltXpath implements CompiledXpath {
+	private final int slot;
+	private final CompiledXpath single;
+
+	XsltXpath(int slot, CompiledXpath single) {
+	    this.slot = slot;
+	    this.single = single;
+	}
+
+	@Override
+	public String evaluate(Record rec) throws XPathExpressionException {
+	    String value = rec.getValue(slot);
+	    return (value != null) ? value : single.evaluate(rec);
+	}
+    }
+}
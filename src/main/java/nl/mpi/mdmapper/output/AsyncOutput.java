@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper.output;
+
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * An output that hands records over to dedicated writer threads,
+ * which save them in the actual outputs. This way slow disk
+ * operations (creating and closing files) do not hold up parsing and
+ * mapping.
+ * <p>
+ * Records wait in a bounded queue; if the writers fall behind and the
+ * queue fills up, saving a record blocks until there is room. All
+ * queued records are written by the time {@link #close()} returns.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+public class AsyncOutput implements Output {
+    private static final Logger logger = Logger.getLogger(AsyncOutput.class);
+
+    /** Marker telling a writer thread to stop. */
+    private static final FacetList STOP = new FacetList(null);
+
+    private final Output[] outputs;
+    private final BlockingQueue<FacetList> queue;
+    private final Thread[] writers;
+
+    /**
+     * Create a new asynchronous output and start its writer threads.
+     *
+     * @param outputs outputs in which records are saved
+     * @param threads number of writer threads
+     * @param capacity maximum number of records waiting to be saved
+     */
+    public AsyncOutput(Output[] outputs, int threads, int capacity) {
+	this.outputs = outputs;
+	queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+	writers = new Thread[Math.max(1, threads)];
+	for (int i=0; i<writers.length; i++) {
+	    writers[i] = new Thread("writer-" + i) {
+		@Override
+		public void run() {
+		    write();
+		}
+	    };
+	    writers[i].start();
+	}
+    }
+
+    /**
+     * Save queued records until told to stop.
+     */
+    private void write() {
+	while (true) {
+	    FacetList fl;
+	    try {
+		fl = queue.take();
+	    } catch (InterruptedException e) {
+		logger.error("Writer thread interrupted", e);
+		return;
+	    }
+	    if (fl == STOP)
+		return;
+	    for (Output o : outputs) {
+		try {
+		    o.save(fl);
+		} catch (RuntimeException e) {
+		    // Keep going so that the other records still get
+		    // written.
+		    logger.error("Error saving " + fl.getSource(), e);
+		}
+	    }
+	}
+    }
+
+    @Override
+    public void save(FacetList fl) {
+	try {
+	    queue.put(fl);
+	} catch (InterruptedException e) {
+	    logger.error("Interrupted while queueing " + fl.getSource(), e);
+	    Thread.currentThread().interrupt();
+	}
+    }
+
+    @Override
+    public void remove(String source) {
+	for (Output o : outputs)
+	    o.remove(source);
+    }
+
+    /**
+     * Wait until all queued records have been saved, stop the writer
+     * threads and close the underlying outputs.
+     */
+    @Override
+    public void close() {
+	try {
+	    for (int i=0; i<writers.length; i++)
+		queue.put(STOP);
+	    for (Thread t : writers)
+		t.join();
+	} catch (InterruptedException e) {
+	    logger.error("Interrupted while waiting for writer threads", e);
+	    Thread.currentThread().interrupt();
+	}
+	for (Output o : outputs)
+	    o.close();
+    }
+}
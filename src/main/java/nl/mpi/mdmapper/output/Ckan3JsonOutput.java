@@ -20,9 +20,11 @@ package nl.mpi.mdmapper.output;
 
 import org.apache.log4j.Logger;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.io.StringWriter;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.io.FileNotFoundException;
 
@@ -33,10 +35,16 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 /**
  * JSON output consistent with CKAN API version 3.
+ * <p>
+ * Records are written directly to a JSON stream, but the result is
+ * the same as serialising with Gson a map of the record's fields (as
+ * this class originally did), including the order of the fields,
+ * which is that of a HashMap.
  *
  * @author Lari Lampen (MPI-PL)
  */
@@ -44,15 +52,11 @@ public class Ckan3JsonOutput implements Output {
     private static final Logger logger = Logger.getLogger(Ckan3JsonOutput.class);
 
     private Path outputDir;
-    private Gson gson;
+    private boolean prettyPrint;
 
     public Ckan3JsonOutput(boolean prettyPrint, Path outputDir) {
 	this.outputDir = outputDir;
-	if (prettyPrint) {
-	    gson = new GsonBuilder().setPrettyPrinting().create();
-	} else {
-	    gson = new Gson();
-	}
+	this.prettyPrint = prettyPrint;
     }
 
     /**
@@ -64,87 +68,205 @@ public class Ckan3JsonOutput implements Output {
 	(Arrays.asList(new String[] {"author", "maintainer", "title", "name", "version",
 				     "url", "notes", "tags", "status", "id", "group"} ));
 
-    private void addExtraField(Map rec, String key, String value) {
-	List extras;
-	if (!rec.containsKey("extras")) {
-	    extras = new ArrayList();
-	    rec.put("extras", extras);
-	} else {
-	    extras = (List)rec.get("extras");
+    /** Where a facet goes in the record. */
+    private enum Route { TAGS, SPATIAL, INTERNAL, EXTRA }
+
+    /** Route of each facet name seen so far. */
+    private static final Map<String, Route> routes = new ConcurrentHashMap<>();
+
+    /**
+     * Order of the fields of a record, given the order in which they
+     * were first added, as a HashMap would iterate over them.
+     */
+    private static final Map<List<String>, String[]> fieldOrders = new ConcurrentHashMap<>();
+
+    /**
+     * Most field orders to remember. Records usually have one of a
+     * few combinations of fields; the orders of any others are
+     * computed each time.
+     */
+    private static final int MAX_FIELD_ORDERS = 1024;
+
+    /** Whether "key" comes before "value" in a HashMap. */
+    private static final boolean keyFirst;
+    static {
+	Map<String, String> m = new HashMap<>();
+	m.put("key", "");
+	m.put("value", "");
+	keyFirst = m.keySet().iterator().next().equals("key");
+    }
+
+    /** Buffers reused for building the output of a record. */
+    private static final ThreadLocal<StringWriter> buffers = new ThreadLocal<StringWriter>() {
+	@Override
+	protected StringWriter initialValue() {
+	    return new StringWriter(1024);
+	}
+    };
+
+    private static Route route(String key) {
+	Route r = routes.get(key);
+	if (r == null) {
+	    if ("tags".equals(key))
+		r = Route.TAGS;
+	    else if ("spatial".equals(key))
+		r = Route.SPATIAL;
+	    else if (internal.contains(key))
+		r = Route.INTERNAL;
+	    else
+		r = Route.EXTRA;
+	    routes.put(key, r);
 	}
-	Map tt = new HashMap<>();
-	tt.put("key", key);
-	tt.put("value", value);
-	extras.add(tt);
+	return r;
     }
 
-    @Override
-    public void save(FacetList fl) {
-	Map rec = new HashMap();
+    private static String[] fieldOrder(List<String> fields) {
+	String[] order = fieldOrders.get(fields);
+	if (order == null) {
+	    Map<String, Boolean> m = new HashMap<>();
+	    for (String f : fields)
+		m.put(f, Boolean.TRUE);
+	    order = m.keySet().toArray(new String[m.size()]);
+	    if (fieldOrders.size() < MAX_FIELD_ORDERS)
+		fieldOrders.put(new ArrayList<>(fields), order);
+	}
+	return order;
+    }
+
+    /**
+     * The value should be a bounding box of type "minx, miny, maxx,
+     * maxy". Convert it into a GeoJSON polygon.
+     *
+     * @return the polygon, or null if the value is invalid
+     */
+    private static String polygon(String value) {
+	String[] parts = value.split(",");
+	if (parts.length < 4) {
+	    logger.info("Spatial value " + value + " is malformed, skipping.");
+	    return null;
+	}
+	String minx = parts[0];
+	String miny = parts[1];
+	String maxx = parts[2];
+	String maxy = parts[3];
+
+	StringBuilder val = new StringBuilder();
+	val.append("{\"type\":\"Polygon\",\"coordinates\":");
+	val.append("[[");
+	val.append("[").append(minx).append(",").append(miny).append("]");
+	val.append(",");
+	val.append("[").append(minx).append(",").append(maxy).append("]");
+	val.append(",");
+	val.append("[").append(maxx).append(",").append(maxy).append("]");
+	val.append(",");
+	val.append("[").append(maxx).append(",").append(miny).append("]");
+	val.append(",");
+	val.append("[").append(minx).append(",").append(miny).append("]");
+	val.append("]]");
+	val.append("}");
+	return val.toString();
+    }
+
+    /**
+     * Create a JSON writer set up the way Gson sets up its own.
+     */
+    static JsonWriter newJsonWriter(StringWriter sw, boolean prettyPrint) {
+	JsonWriter w = new JsonWriter(sw);
+	if (prettyPrint)
+	    w.setIndent("  ");
+	w.setLenient(true);
+	w.setHtmlSafe(true);
+	return w;
+    }
+
+    /**
+     * Write a facet list as a CKAN record.
+     */
+    static void write(FacetList fl, JsonWriter w) throws IOException {
+	// First find which fields the record has, in the order they
+	// are added.
+	List<String> fields = new ArrayList<>();
+	String spatial = null;
+	boolean extras = false;
 	for (Map.Entry<String, String> e : fl.res.entrySet()) {
 	    String key = e.getKey();
-	    String value = e.getValue();
-	    if ("tags".equals(key)) {
+	    switch (route(key)) {
+		case SPATIAL:
+		    spatial = polygon(e.getValue());
+		    if (spatial == null)
+			continue;
+		    // fall through
+		case EXTRA:
+		    if (!extras) {
+			extras = true;
+			fields.add("extras");
+		    }
+		    break;
+		default:
+		    // The "tags" facet ends up in the field of the same
+		    // name, as do internal fields.
+		    fields.add(key);
+		    break;
+	    }
+	}
+
+	w.beginObject();
+	for (String field : fieldOrder(fields)) {
+	    w.name(field);
+	    if ("extras".equals(field)) {
+		w.beginArray();
+		for (Map.Entry<String, String> e : fl.res.entrySet()) {
+		    Route r = route(e.getKey());
+		    if (r == Route.EXTRA)
+			writeExtra(w, e.getKey(), e.getValue());
+		    else if (r == Route.SPATIAL && spatial != null)
+			writeExtra(w, e.getKey(), spatial);
+		}
+		w.endArray();
+	    } else if ("tags".equals(field)) {
 		// The "tags" facet has a special syntax in this JSON
 		// format. It is assumed to be comma-separated after
 		// the intial mapping.
-		List tags;
-		if (!rec.containsKey("tags")) {
-		    tags = new ArrayList();
-		    rec.put("tags", tags);
-		} else {
-		    tags = (List)rec.get("tags");
-		}
-		String[] parts = value.split(",");
-		for (String part : parts) {
-		    Map tt = new HashMap<>();
-		    tt.put("name", part);
-		    tags.add(tt);
+		w.beginArray();
+		for (String part : fl.res.get(field).split(",")) {
+		    w.beginObject();
+		    w.name("name").value(part);
+		    w.endObject();
 		}
-	    } else if ("spatial".equals(key)) {
-		// The value should be a bounding box of type "minx,
-		// miny, maxx, maxy". If the value is invalid, skip
-		// it. Otherwise detect whether it is a bounding box
-		// or a simple point and handle accordingly.
-		String[] parts = value.split(",");
-		if (parts.length < 4) {
-		    logger.info("Spatial value " + value + " is malformed, skipping.");
-		    continue;
-		}
-		String minx = parts[0];
-		String miny = parts[1];
-		String maxx = parts[2];
-		String maxy = parts[3];
-
-		StringBuilder val = new StringBuilder();
-/*		if (minx.equals(maxx) && miny.equals(maxy)) {
- *		    val.append("{\"type\":\"Point\",\"coordinates\":");
- *		    val.append("[").append(minx).append(",").append(miny).append("]");
- *		} else {
- */		
-                val.append("{\"type\":\"Polygon\",\"coordinates\":");
-	        val.append("[[");
-	        val.append("[").append(minx).append(",").append(miny).append("]");
-	        val.append(",");
-	        val.append("[").append(minx).append(",").append(maxy).append("]");
-	        val.append(",");
-	        val.append("[").append(maxx).append(",").append(maxy).append("]");
-	        val.append(",");
-	        val.append("[").append(maxx).append(",").append(miny).append("]");
-	        val.append(",");
-	        val.append("[").append(minx).append(",").append(miny).append("]");
-	        val.append("]]");
-/*		}
- */		
-		val.append("}");
-		addExtraField(rec, key, val.toString());
-	    } else if (internal.contains(key)) {
-		rec.put(key, value);
+		w.endArray();
 	    } else {
-		addExtraField(rec, key, value);
+		w.value(fl.res.get(field));
 	    }
 	}
-	
+	w.endObject();
+	w.flush();
+    }
+
+    private static void writeExtra(JsonWriter w, String key, String value) throws IOException {
+	w.beginObject();
+	if (keyFirst) {
+	    w.name("key").value(key);
+	    w.name("value").value(value);
+	} else {
+	    w.name("value").value(value);
+	    w.name("key").value(key);
+	}
+	w.endObject();
+    }
+
+    @Override
+    public void save(FacetList fl) {
+	StringWriter sw = buffers.get();
+	sw.getBuffer().setLength(0);
+	try {
+	    write(fl, newJsonWriter(sw, prettyPrint));
+	} catch (IOException e) {
+	    // Cannot happen when writing to a string.
+	    logger.error("Error serialising " + fl.getSource(), e);
+	    return;
+	}
+	String json = sw.toString();
+
 	PrintStream out;
 	boolean close;
 
@@ -154,15 +276,35 @@ public class Ckan3JsonOutput implements Output {
 	} else {
 	    close = true;
 	    try {
-		out = new PrintStream(outputDir.resolve(fl.getSourceShort().replaceAll("xml$", "") + "json").toFile());
+		out = new PrintStream(outputDir.resolve(fl.getOutputName("json")).toFile());
 	    } catch (FileNotFoundException e) {
 		logger.error(e.getMessage(), e);
 		return;
 	    }
 	}
 
-	gson.toJson(rec, out);
-	out.println();
+	// Several threads may write to the same stream (stdout), so
+	// keep each record together.
+	synchronized (out) {
+	    out.print(json);
+	    out.println();
+	}
 	if (close) out.close();
     }
+
+    @Override
+    public void remove(String source) {
+	if (outputDir == null)
+	    return;
+	try {
+	    Files.deleteIfExists(outputDir.resolve(new FacetList(source).getOutputName("json")));
+	} catch (IOException e) {
+	    logger.error(e.getMessage(), e);
+	}
+    }
+
+    @Override
+    public void close() {
+	// Each record is written to a file of its own, closed at once.
+    }
 }
@@ -18,6 +18,7 @@
 
 package nl.mpi.mdmapper.output;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.io.PrintStream;
@@ -52,6 +53,40 @@ public class FacetList {
 	return source;
     }
 
+    /**
+     * Get the name of the file in which an output saves this record.
+     * A record read from a file "x.xml" is saved as e.g. "x.json",
+     * and one read from an entry "y/x.xml" of an archive "a.zip" (the
+     * source "a.zip!/y/x.xml") as "a.zip_y_x.json". Other sources,
+     * such as OAI identifiers, are used as a whole, with characters
+     * that are not safe in file names replaced.
+     *
+     * @param extension file name extension of the output, e.g. "json"
+     */
+    public String getOutputName(String extension) {
+	int entry = source.lastIndexOf("!/");
+	if (entry >= 0 && source.endsWith(".xml")) {
+	    String name = new FacetList(source.substring(0, entry)).getSourceShort()
+		+ "_" + source.substring(entry + 2);
+	    name = name.replaceAll("[^\\w.@+=-]", "_");
+	    return name.substring(0, name.length() - 3) + extension;
+	}
+	if (source.endsWith(".xml")) {
+	    String name = getSourceShort();
+	    return name.substring(0, name.length() - 3) + extension;
+	}
+	return source.replaceAll("[^\\w.@+=-]", "_") + "." + extension;
+    }
+
+    /**
+     * Get the facets and their values.
+     *
+     * @return unmodifiable map of values indexed by facet name
+     */
+    public Map<String, String> getFacets() {
+	return Collections.unmodifiableMap(res);
+    }
+
     public void add(String field, String value) {
 	res.put(field, value);
     }
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper.output;
+
+import org.apache.log4j.Logger;
+
+import com.google.gson.Gson;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * JSON Lines output: all records are appended to one stream, one JSON
+ * object per line, instead of each being written to a file of its
+ * own. Records can have the plain shape (as PlainJsonOutput) or the
+ * CKAN shape (as Ckan3JsonOutput).
+ * <p>
+ * When writing to a directory, the output is split into files named
+ * records-&lt;shape&gt;-&lt;time&gt;-&lt;n&gt;.jsonl (optionally
+ * gzipped), a new file being started once the current one reaches
+ * the given number of records or bytes. Existing files are never
+ * overwritten: if a name is taken, e.g. by another output or by a
+ * run started in the same second, the next number is tried.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+public class JsonLinesOutput implements Output {
+    private static final Logger logger = Logger.getLogger(JsonLinesOutput.class);
+
+    private final Path outputDir;
+    private final boolean ckan;
+    private final boolean gzip;
+    private final long maxRecords;
+    private final long maxBytes;
+    private final String prefix;
+    private final Gson gson;
+
+    /** Current stream, or null if none is open. */
+    private OutputStream out;
+
+    /** Number of files started so far. */
+    private int numFiles;
+
+    /** Records and (uncompressed) bytes written to the current file. */
+    private long records;
+    private long bytes;
+
+    /**
+     * Create new output object for JSON Lines.
+     *
+     * @param ckan whether records have the CKAN shape instead of the
+     * plain one
+     * @param gzip whether to compress the output files
+     * @param maxRecords maximum number of records per file, 0 for no
+     * limit
+     * @param maxBytes maximum (uncompressed) size of a file in bytes,
+     * 0 for no limit; a file always holds at least one record
+     * @param outputDir output directory, or null for stdout
+     */
+    public JsonLinesOutput(boolean ckan, boolean gzip, long maxRecords, long maxBytes, Path outputDir) {
+	this.outputDir = outputDir;
+	this.ckan = ckan;
+	this.gzip = gzip;
+	this.maxRecords = maxRecords;
+	this.maxBytes = maxBytes;
+	prefix = "records-" + (ckan ? "ckan" : "plain") + "-"
+	    + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + "-";
+	gson = new Gson();
+	if (outputDir == null && (gzip || maxRecords > 0 || maxBytes > 0))
+	    logger.info("Compression and rollover do not apply to stdout, ignoring.");
+    }
+
+    @Override
+    public void save(FacetList fl) {
+	String json;
+	if (ckan) {
+	    StringWriter sw = new StringWriter();
+	    try {
+		Ckan3JsonOutput.write(fl, Ckan3JsonOutput.newJsonWriter(sw, false));
+	    } catch (IOException e) {
+		// Cannot happen when writing to a string.
+		logger.error("Error serialising " + fl.getSource(), e);
+		return;
+	    }
+	    json = sw.toString();
+	} else {
+	    json = gson.toJson(fl.res);
+	}
+	byte[] line = (json + "\n").getBytes(StandardCharsets.UTF_8);
+
+	synchronized (this) {
+	    try {
+		if (out != null && outputDir != null && records > 0
+		    && ((maxRecords > 0 && records >= maxRecords)
+			|| (maxBytes > 0 && bytes + line.length > maxBytes))) {
+		    out.close();
+		    out = null;
+		}
+		if (out == null)
+		    open();
+		out.write(line);
+		records++;
+		bytes += line.length;
+	    } catch (IOException e) {
+		logger.error("Error saving record " + fl.getSource(), e);
+	    }
+	}
+    }
+
+    /**
+     * Start a new output file, or stdout.
+     */
+    private void open() throws IOException {
+	records = 0;
+	bytes = 0;
+	if (outputDir == null) {
+	    // Several outputs may write to stdout. Records are written
+	    // whole (line and newline at once), so the buffer is only
+	    // ever flushed between records and they do not get mixed.
+	    out = new BufferedOutputStream(System.out, 1 << 16) {
+		@Override
+		public void close() throws IOException {
+		    flush();
+		}
+	    };
+	    return;
+	}
+	OutputStream os;
+	Path file;
+	while (true) {
+	    String name = String.format("%s%05d.jsonl", prefix, numFiles++);
+	    if (gzip)
+		name += ".gz";
+	    file = outputDir.resolve(name);
+	    try {
+		os = Files.newOutputStream(file, StandardOpenOption.CREATE_NEW,
+					   StandardOpenOption.WRITE);
+		break;
+	    } catch (FileAlreadyExistsException e) {
+		logger.debug("Already exists: " + file);
+	    }
+	}
+	logger.info("Writing records to " + file);
+	if (gzip)
+	    os = new GZIPOutputStream(os, 1 << 16);
+	out = new BufferedOutputStream(os, 1 << 16);
+    }
+
+    @Override
+    public void remove(String source) {
+	// Records cannot be removed from the middle of a file.
+	logger.debug("Cannot remove record " + source + " from JSON Lines output");
+    }
+
+    @Override
+    public synchronized void close() {
+	if (out == null)
+	    return;
+	try {
+	    out.close();
+	} catch (IOException e) {
+	    logger.error("Error closing JSON Lines output", e);
+	}
+	out = null;
+    }
+}
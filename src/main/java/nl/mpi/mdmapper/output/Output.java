@@ -29,4 +29,20 @@ public interface Output {
      * each subclass).
      */
     void save(FacetList fl);
+
+    /**
+     * Remove the output previously saved for the record with the
+     * given source, if it is stored separately (e.g. in a file of its
+     * own). Otherwise this does nothing.
+     *
+     * @param source source of the record, as returned by
+     * FacetList.getSource()
+     */
+    void remove(String source);
+
+    /**
+     * Flush and close any streams kept open between records. Called
+     * once after all records have been saved.
+     */
+    void close();
 }
@@ -23,9 +23,11 @@ import org.apache.log4j.Logger;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import java.io.PrintStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
 
 import java.io.FileNotFoundException;
+import java.io.IOException;
 
 /**
  * Plain JSON output (i.e. key-value pairs on the top level with no further structure).
@@ -64,15 +66,35 @@ public class PlainJsonOutput implements Output {
 	} else {
 	    close = true;
 	    try {
-		out = new PrintStream(outputDir.resolve(fl.getSourceShort().replaceAll("xml$", "") + "json").toFile());
+		out = new PrintStream(outputDir.resolve(fl.getOutputName("json")).toFile());
 	    } catch (FileNotFoundException e) {
 		logger.error(e.getMessage(), e);
 		return;
 	    }
 	}
 
-	gson.toJson(fl.res, out);
-	out.println();
+	// Several threads may write to the same stream (stdout), so
+	// keep each record together.
+	synchronized (out) {
+	    gson.toJson(fl.res, out);
+	    out.println();
+	}
 	if (close) out.close();
     }
+
+    @Override
+    public void remove(String source) {
+	if (outputDir == null)
+	    return;
+	try {
+	    Files.deleteIfExists(outputDir.resolve(new FacetList(source).getOutputName("json")));
+	} catch (IOException e) {
+	    logger.error(e.getMessage(), e);
+	}
+    }
+
+    @Override
+    public void close() {
+	// Each record is written to a file of its own, closed at once.
+    }
 }
@@ -37,9 +37,12 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
 import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 
 import java.io.FileNotFoundException;
+import java.io.IOException;
 
 /**
  * Plain XML output (i.e. key-value pairs on the top level with no further structure).
@@ -63,8 +66,20 @@ public class PlainXmlOutput implements Output {
 	indent = prettyPrint;
     }
 
+    /** Buffers reused for building the output of a record. */
+    private static final ThreadLocal<StringBuilder> buffers = new ThreadLocal<StringBuilder>() {
+	@Override
+	protected StringBuilder initialValue() {
+	    return new StringBuilder(1024);
+	}
+    };
+
     @Override
     public void save(FacetList fl) {
+	// Build the output before opening the file, so that the file
+	// is kept open only for as long as needed.
+	byte[] xml = serialize(fl);
+
 	PrintStream out;
 	boolean close;
 
@@ -74,13 +89,121 @@ public class PlainXmlOutput implements Output {
 	} else {
 	    close = true;
 	    try {
-		out = new PrintStream(outputDir.resolve(fl.getSourceShort()).toFile());
+		out = new PrintStream(outputDir.resolve(fl.getOutputName("xml")).toFile());
 	    } catch (FileNotFoundException e) {
 		logger.error(e.getMessage(), e);
 		return;
 	    }
 	}
 
+	if (xml != null) {
+	    // Several threads may write to the same stream (stdout), so
+	    // keep each record together.
+	    synchronized (out) {
+		out.write(xml, 0, xml.length);
+		out.println();
+	    }
+	} else {
+	    transform(fl, out);
+	}
+
+	if (close) out.close();
+    }
+
+    /**
+     * Serialise a facet list directly, producing exactly the same
+     * bytes as the identity transformation of the DOM tree built by
+     * {@link #transform(FacetList, PrintStream)}. Values containing
+     * characters that the serialiser would escape or reject (control
+     * characters, surrogates, etc.) are rare, and are left to the
+     * transformation.
+     *
+     * @return the record as UTF-8, or null if it must be
+     * transformed instead
+     */
+    private byte[] serialize(FacetList fl) {
+	StringBuilder sb = buffers.get();
+	sb.setLength(0);
+	sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+	if (indent)
+	    sb.append('\n');
+	if (fl.res.isEmpty()) {
+	    sb.append("<fieldList/>");
+	} else {
+	    sb.append("<fieldList>");
+	    for (Map.Entry<String, String> e : fl.res.entrySet()) {
+		String name = e.getKey();
+		String value = e.getValue();
+		if (!isPlain(name, false) || !isPlain(value, true))
+		    return null;
+		if (indent)
+		    sb.append("\n   ");
+		sb.append("<field name=\"");
+		escape(sb, name, true);
+		sb.append("\">");
+		escape(sb, value, false);
+		sb.append("</field>");
+	    }
+	    if (indent)
+		sb.append('\n');
+	    sb.append("</fieldList>");
+	}
+	if (indent)
+	    sb.append('\n');
+	return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Check that a string contains only characters written as such,
+     * or escaped by {@link #escape(StringBuilder, String, boolean)}.
+     *
+     * @param text whether the string is text content, where tabs and
+     * newlines are written as such
+     */
+    private static boolean isPlain(String s, boolean text) {
+	for (int i=0; i<s.length(); i++) {
+	    char c = s.charAt(i);
+	    if (c < 0x20) {
+		if (!text || (c != '\t' && c != '\n'))
+		    return false;
+	    } else if ((c >= 0x7f && c <= 0x9f) || c == 0x2028
+		       || Character.isSurrogate(c) || c >= 0xfffe) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    private static void escape(StringBuilder sb, String s, boolean attribute) {
+	for (int i=0; i<s.length(); i++) {
+	    char c = s.charAt(i);
+	    switch (c) {
+		case '&':
+		    sb.append("&amp;");
+		    break;
+		case '<':
+		    sb.append("&lt;");
+		    break;
+		case '>':
+		    sb.append("&gt;");
+		    break;
+		case '"':
+		    if (attribute)
+			sb.append("&#34;");
+		    else
+			sb.append(c);
+		    break;
+		default:
+		    sb.append(c);
+	    }
+	}
+    }
+
+    /**
+     * Serialise a facet list by building a DOM tree and transforming
+     * it.
+     */
+    private void transform(FacetList fl, PrintStream out) {
 	try {
 	    DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
 	    DocumentBuilder docBuilder = docFactory.newDocumentBuilder();
@@ -103,13 +226,31 @@ public class PlainXmlOutput implements Output {
 	    DOMSource source = new DOMSource(doc);
 	    StreamResult result = new StreamResult(out);
 
-	    transformer.transform(source, result);
-
+	    // Several threads may write to the same stream (stdout), so
+	    // keep each record together.
+	    synchronized (out) {
+		transformer.transform(source, result);
+		out.println();
+	    }
 	} catch (ParserConfigurationException | TransformerException e) {
 	    logger.error("Error saving XML", e);
+	    out.println();
 	}
+    }
 
-	out.println();
-	if (close) out.close();
+    @Override
+    public void remove(String source) {
+	if (outputDir == null)
+	    return;
+	try {
+	    Files.deleteIfExists(outputDir.resolve(new FacetList(source).getOutputName("xml")));
+	} catch (IOException e) {
+	    logger.error(e.getMessage(), e);
+	}
+    }
+
+    @Override
+    public void close() {
+	// Each record is written to a file of its own, closed at once.
     }
 }
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper.parser;
+
+import org.apache.log4j.Logger;
+
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Resolves external entities (DTDs and the entities they declare)
+ * from a local catalog directory instead of the network. An entity
+ * with system identifier "http://host/path/file.dtd" is looked up in
+ * the catalog as "host/path/file.dtd", and failing that as
+ * "file.dtd". Resolved entities are kept in memory, since the same
+ * few DTDs are referenced by a great many records.
+ * <p>
+ * Entities not found in the catalog are fetched from their URLs only
+ * if external loading is enabled. Otherwise they are replaced with
+ * empty ones, so that records referencing unreachable DTDs can still
+ * be parsed (as long as they do not use the entities declared there).
+ * Local files ("file:" identifiers) are always read as usual.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+public class CatalogResolver implements EntityResolver {
+    private static final Logger logger = Logger.getLogger(CatalogResolver.class);
+
+    /** Marks entities known not to be in the catalog. */
+    private static final byte[] MISSING = new byte[0];
+
+    private final Path catalog;
+    private final boolean external;
+
+    /** Contents of entities looked up so far, by system identifier. */
+    private final ConcurrentMap<String, byte[]> cache;
+
+    /**
+     * Create a new resolver.
+     *
+     * @param catalog catalog directory, or null if there is none
+     * @param external whether entities not in the catalog may be
+     * fetched from their URLs
+     */
+    public CatalogResolver(Path catalog, boolean external) {
+	this.catalog = catalog;
+	this.external = external;
+	cache = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public InputSource resolveEntity(String publicId, String systemId) throws IOException {
+	if (systemId == null || systemId.startsWith("file:"))
+	    return null;
+
+	byte[] content = cache.get(systemId);
+	if (content == null) {
+	    content = lookup(systemId);
+	    if (content == null) {
+		content = MISSING;
+		if (!external)
+		    logger.warn("Entity " + systemId + " is not in the catalog and external loading"
+				+ " is disabled; using an empty entity instead");
+	    }
+	    cache.putIfAbsent(systemId, content);
+	}
+
+	if (content == MISSING && external)
+	    return null;
+	InputSource source = new InputSource(new ByteArrayInputStream(content));
+	source.setPublicId(publicId);
+	// Relative references in the entity are resolved against
+	// this, and then looked up in the catalog as well.
+	source.setSystemId(systemId);
+	return source;
+    }
+
+    /**
+     * Look up an entity in the catalog.
+     *
+     * @return content of the entity, or null if it is not found
+     */
+    private byte[] lookup(String systemId) throws IOException {
+	if (catalog == null)
+	    return null;
+	String path;
+	try {
+	    URI uri = new URI(systemId);
+	    path = ((uri.getHost() == null) ? "" : uri.getHost()) + "/"
+		+ ((uri.getPath() == null) ? "" : uri.getPath());
+	} catch (URISyntaxException e) {
+	    path = systemId;
+	}
+
+	Path file = null;
+	String mirrored = path.replaceAll("^/+", "").replaceAll("/+", "/");
+	if (!mirrored.isEmpty() && !mirrored.endsWith("/"))
+	    file = resolve(mirrored);
+	if (file == null || !Files.isRegularFile(file)) {
+	    String name = path.substring(path.lastIndexOf('/') + 1);
+	    file = name.isEmpty() ? null : resolve(name);
+	}
+	if (file == null || !Files.isRegularFile(file))
+	    return null;
+	logger.debug("Resolved " + systemId + " to " + file);
+	return Files.readAllBytes(file);
+    }
+
+    /**
+     * Resolve a path in the catalog, refusing paths that lead outside
+     * it.
+     */
+    private Path resolve(String path) {
+	Path file = catalog.resolve(path).normalize();
+	return file.startsWith(catalog.normalize()) ? file : null;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper.parser;
+
+import org.apache.log4j.Logger;
+
+import org.xml.sax.EntityResolver;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+/**
+ * Source of XML parsers configured the same way throughout the
+ * mapper: external entities are resolved by the given resolver (see
+ * {@link CatalogResolver}). Parsers are not thread-safe and are
+ * costly to create, so each thread gets its own, which is reset and
+ * reused for every document it parses.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+public class Parsers {
+    private static final Logger logger = Logger.getLogger(Parsers.class);
+
+    private final EntityResolver resolver;
+
+    /** Factories are only used while holding their lock. */
+    private final DocumentBuilderFactory dbFactory;
+    private final SAXParserFactory spFactory;
+
+    private final ThreadLocal<DocumentBuilder> builders;
+    private final ThreadLocal<XMLReader> readers;
+
+    /**
+     * Create a new source of parsers.
+     *
+     * @param resolver resolver of external entities
+     * @param namespaceAware whether the parsers are namespace aware
+     */
+    public Parsers(EntityResolver resolver, boolean namespaceAware) {
+	this.resolver = resolver;
+	dbFactory = DocumentBuilderFactory.newInstance();
+	dbFactory.setNamespaceAware(namespaceAware);
+	spFactory = SAXParserFactory.newInstance();
+	spFactory.setNamespaceAware(namespaceAware);
+	builders = new ThreadLocal<DocumentBuilder>() {
+	    @Override
+	    protected DocumentBuilder initialValue() {
+		try {
+		    synchronized (dbFactory) {
+			return dbFactory.newDocumentBuilder();
+		    }
+		} catch (ParserConfigurationException e) {
+		    logger.error("Cannot create parser", e);
+		    return null;
+		}
+	    }
+	};
+	readers = new ThreadLocal<XMLReader>() {
+	    @Override
+	    protected XMLReader initialValue() {
+		try {
+		    synchronized (spFactory) {
+			return spFactory.newSAXParser().getXMLReader();
+		    }
+		} catch (ParserConfigurationException | SAXException e) {
+		    logger.error("Cannot create parser", e);
+		    return null;
+		}
+	    }
+	};
+    }
+
+    /**
+     * Get the DOM parser of the current thread, reset for a new
+     * document.
+     */
+    public DocumentBuilder getDocumentBuilder() {
+	DocumentBuilder db = builders.get();
+	db.reset();
+	// Resetting also forgets the resolver.
+	db.setEntityResolver(resolver);
+	return db;
+    }
+
+    /**
+     * Get the SAX parser of the current thread. The caller sets the
+     * handlers it needs for each document.
+     */
+    public XMLReader getXMLReader() {
+	XMLReader r = readers.get();
+	r.setEntityResolver(resolver);
+	return r;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper;
+
+import nl.mpi.mdmapper.output.FacetList;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the class ArchiveReader.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+public class ArchiveReaderTest {
+    private static final String[] RECORDS = {
+	"cmdi-session.xml", "cmdi-collection.xml", "olac-dc.xml"
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] record(String name) throws Exception {
+	return Files.readAllBytes(MappingTableTest.resource("records/" + name));
+    }
+
+    private static byte[] content(RecordInput input) throws IOException {
+	ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	try (InputStream in = input.open().getByteStream()) {
+	    byte[] buf = new byte[4096];
+	    int n;
+	    while ((n = in.read(buf)) != -1)
+		bytes.write(buf, 0, n);
+	}
+	return bytes.toByteArray();
+    }
+
+    private static List<RecordInput> read(Path file) throws Exception {
+	final List<RecordInput> records = new ArrayList<>();
+	int n = ArchiveReader.read(file, false, new RecordInput.Handler() {
+	    @Override
+	    public void record(RecordInput input) {
+		records.add(input);
+	    }
+	});
+	assertEquals(records.size(), n);
+	return records;
+    }
+
+    /**
+     * Test that the records of zip and tar archives are read entry by
+     * entry and named by the archive and the entries.
+     */
+    @Test
+    public void testArchives() throws Exception {
+	Path zip = folder.getRoot().toPath().resolve("records.zip");
+	try (ZipArchiveOutputStream out = new ZipArchiveOutputStream(zip.toFile())) {
+	    out.putArchiveEntry(new ZipArchiveEntry("readme.txt"));
+	    out.write("skipped".getBytes("UTF-8"));
+	    out.closeArchiveEntry();
+	    for (String name : RECORDS) {
+		out.putArchiveEntry(new ZipArchiveEntry("records/" + name));
+		out.write(record(name));
+		out.closeArchiveEntry();
+	    }
+	}
+	Path tgz = folder.getRoot().toPath().resolve("records.tar.gz");
+	try (TarArchiveOutputStream out = new TarArchiveOutputStream
+	     (new GzipCompressorOutputStream(Files.newOutputStream(tgz)))) {
+	    for (String name : RECORDS) {
+		TarArchiveEntry e = new TarArchiveEntry("records/" + name);
+		e.setSize(record(name).length);
+		out.putArchiveEntry(e);
+		out.write(record(name));
+		out.closeArchiveEntry();
+	    }
+	}
+
+	assertTrue(ArchiveReader.isArchive(zip.toString()));
+	assertTrue(ArchiveReader.isArchive(tgz.toString()));
+	assertFalse(ArchiveReader.isArchive("records/olac-dc.xml"));
+	for (Path archive : Arrays.asList(zip, tgz)) {
+	    List<RecordInput> records = read(archive);
+	    assertEquals(RECORDS.length, records.size());
+	    for (int i=0; i<RECORDS.length; i++) {
+		String source = archive + "!/records/" + RECORDS[i];
+		assertEquals(source, records.get(i).getSource());
+		assertEquals(archive.getFileName() + "_records_" + RECORDS[i].replace(".xml", ".json"),
+			     new FacetList(source).getOutputName("json"));
+		assertArrayEquals(record(RECORDS[i]), content(records.get(i)));
+	    }
+	}
+    }
+
+    /**
+     * Test that a single compressed record is named after the file
+     * without the suffix, and maps the same as the uncompressed one.
+     */
+    @Test
+    public void testCompressed() throws Exception {
+	Path gz = folder.getRoot().toPath().resolve("olac-dc.xml.gz");
+	try (OutputStream out = new GzipCompressorOutputStream(Files.newOutputStream(gz))) {
+	    out.write(record("olac-dc.xml"));
+	}
+	Path bz2 = folder.getRoot().toPath().resolve("olac-dc.xml.bz2");
+	try (OutputStream out = new BZip2CompressorOutputStream(Files.newOutputStream(bz2))) {
+	    out.write(record("olac-dc.xml"));
+	}
+
+	MappingTableTest.selectSaxon();
+	MappingTable mt = MappingTableTest.table("stream");
+	String expected = MappingTableTest.map(mt, "olac-dc.xml").get("id");
+	for (Path file : Arrays.asList(gz, bz2)) {
+	    List<RecordInput> records = read(file);
+	    assertEquals(1, records.size());
+	    assertEquals(folder.getRoot().toPath().resolve("olac-dc.xml").toString(),
+			 records.get(0).getSource());
+	    assertEquals(expected, mt.applyMappings(records.get(0)).getFacets().get("id"));
+	}
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the class DirectoryScanner.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+public class DirectoryScannerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** Files in the test tree, in sorted order. */
+    private final List<String> expected = new ArrayList<>();
+
+    @Before
+    public void createTree() throws IOException {
+	Path root = folder.getRoot().toPath();
+	for (String name : new String[] {"a.xml", "b/c.xml", "b/d/e.xml", "b/d/f.xml",
+					 "b/g.xml", "h/i.xml", "j.xml"}) {
+	    Path p = root.resolve(name);
+	    Files.createDirectories(p.getParent());
+	    Files.createFile(p);
+	    expected.add(p.toString());
+	}
+	// Many more directories than may be listed ahead of the visitor.
+	for (int i=0; i<200; i++) {
+	    Path p = root.resolve(String.format("k/%03d/l.xml", i));
+	    Files.createDirectories(p.getParent());
+	    Files.createFile(p);
+	    expected.add(p.toString());
+	}
+    }
+
+    private List<String> scan(int threads, boolean sorted) throws IOException {
+	final List<String> found = new ArrayList<>();
+	new DirectoryScanner(threads, sorted).scan(folder.getRoot().toPath(), new SimpleFileVisitor<Path>() {
+	    @Override
+	    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+		assertTrue(attrs.isRegularFile());
+		found.add(file.toString());
+		return FileVisitResult.CONTINUE;
+	    }
+	});
+	return found;
+    }
+
+    /**
+     * Test that every file is visited exactly once, however many
+     * threads list the directories.
+     */
+    @Test
+    public void testAllFiles() throws IOException {
+	for (int threads : new int[] {1, 4}) {
+	    List<String> found = scan(threads, false);
+	    assertEquals(expected.size(), found.size());
+	    assertEquals(new HashSet<>(expected), new HashSet<>(found));
+	}
+    }
+
+    /**
+     * Test that sorted order is depth first by name, whatever the
+     * number of threads.
+     */
+    @Test
+    public void testSorted() throws IOException {
+	assertEquals(expected, scan(1, true));
+	for (int i=0; i<5; i++)
+	    assertEquals(expected, scan(4, true));
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper;
+
+import nl.mpi.mdmapper.output.FacetList;
+import nl.mpi.mdmapper.output.Output;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the class FileProcessor.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+public class FileProcessorTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void selectSaxon() {
+	MappingTableTest.selectSaxon();
+    }
+
+    /** Output that keeps the sources of the records saved. */
+    private static class SourceOutput implements Output {
+	final List<String> saved = new ArrayList<>();
+
+	@Override
+	public synchronized void save(FacetList fl) {
+	    saved.add(fl.getSource());
+	}
+
+	@Override
+	public void remove(String source) {
+	}
+
+	@Override
+	public void close() {
+	}
+    }
+
+    /** Output that fails on every record. */
+    private static class FailingOutput extends SourceOutput {
+	@Override
+	public void save(FacetList fl) {
+	    throw new IllegalStateException("Cannot save " + fl.getSource());
+	}
+    }
+
+    private Configuration config() throws Exception {
+	Configuration config = new Configuration();
+	config.setParam("harvester", "unit test");
+	config.setParam("mapfile", MappingTableTest.resource("mapfiles/clarin-cmdi.xml").toString());
+	config.setParam("manifest", folder.getRoot().toPath().resolve("manifest.tsv").toString());
+	return config;
+    }
+
+    private static void run(Configuration config, Manifest manifest, Output output,
+			    int threads, Path file) throws Exception {
+	FileProcessor fp = new FileProcessor(new MappingTable(config.getMapfile(), config),
+					     new Output[] {output}, threads, manifest);
+	fp.visitFile(file, Files.readAttributes(file, BasicFileAttributes.class));
+	fp.finish();
+    }
+
+    /**
+     * Test that a file whose output throws an exception is recorded
+     * as failed: its earlier output is not taken for obsolete, and it
+     * is tried again in the next run.
+     */
+    @Test
+    public void testFailingOutput() throws Exception {
+	for (int threads : new int[] {1, 2}) {
+	    Path file = folder.getRoot().toPath().resolve("session" + threads + ".xml");
+	    Files.copy(MappingTableTest.resource("records/cmdi-session.xml"), file,
+		       StandardCopyOption.REPLACE_EXISTING);
+	    Configuration config = config();
+
+	    Manifest m = new Manifest(config);
+	    SourceOutput ok = new SourceOutput();
+	    run(config, m, ok, threads, file);
+	    assertEquals(1, ok.saved.size());
+	    m.save();
+
+	    Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 5000));
+	    m = new Manifest(config);
+	    run(config, m, new FailingOutput(), threads, file);
+	    assertTrue(m.getObsoleteSources().isEmpty());
+	    m.save();
+
+	    m = new Manifest(config);
+	    assertNotNull(m.check(file, Files.readAttributes(file, BasicFileAttributes.class)));
+	}
+    }
+}
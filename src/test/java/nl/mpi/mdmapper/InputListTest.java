@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the class InputList.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+public class InputListTest {
+    /**
+     * Test that however a file in the input directory is written, it
+     * gets the path a walk of the directory would give it.
+     */
+    @Test
+    public void testCanonical() {
+	Path base = Paths.get("data");
+	InputList list = new InputList("-", base);
+	Path expected = base.resolve("a").resolve("x.xml");
+	assertEquals(expected, list.canonical("a/x.xml"));
+	assertEquals(expected, list.canonical("./a/../a/x.xml"));
+	assertEquals(expected, list.canonical("../data/a/x.xml"));
+	assertEquals(expected, list.canonical(Paths.get("data/a/x.xml").toAbsolutePath().toString()));
+
+	Path outside = Paths.get("other/y.xml").toAbsolutePath();
+	assertEquals(outside, list.canonical("../other/y.xml"));
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the class LatencyHistogram.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+public class LatencyHistogramTest {
+    /**
+     * Test that counts and totals are exact and percentiles are
+     * within the precision of the buckets.
+     */
+    @Test
+    public void testPercentiles() {
+	LatencyHistogram h = new LatencyHistogram();
+	for (long i=1; i<=1000; i++)
+	    h.record(i * 1000);
+
+	assertEquals(1000, h.getCount());
+	assertEquals(500500L * 1000, h.getTotal());
+	long p50 = h.getPercentile(50);
+	assertTrue("p50 " + p50, p50 >= 500000 && p50 <= 500000 * 1.25);
+	long p99 = h.getPercentile(99);
+	assertTrue("p99 " + p99, p99 >= 990000 && p99 <= 990000 * 1.25);
+	assertEquals(1000000, h.getPercentile(100));
+	assertEquals(0, new LatencyHistogram().getPercentile(50));
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.w3c.dom.Element;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the class ListRecordsReader.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+public class ListRecordsReaderTest {
+    private static final String[] RECORDS = {
+	"cmdi-session.xml", "cmdi-collection.xml", "olac-dc.xml"
+    };
+
+    /** A ListRecords response with the sample records, and more. */
+    private static byte[] response;
+
+    @BeforeClass
+    public static void createResponse() throws Exception {
+	MappingTableTest.selectSaxon();
+	StringBuilder sb = new StringBuilder();
+	sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+	    .append("<OAI-PMH xmlns=\"http://www.openarchives.org/OAI/2.0/\"")
+	    .append(" xmlns:t=\"urn:test\">\n<ListRecords>\n");
+	for (String name : RECORDS) {
+	    String xml = new String(Files.readAllBytes(MappingTableTest.resource("records/" + name)),
+				    StandardCharsets.UTF_8);
+	    sb.append("<record><header><identifier>oai:test:").append(name)
+		.append("</identifier><datestamp>2014-01-01</datestamp></header>\n<metadata>")
+		.append(xml.replaceFirst("<\\?xml[^>]*\\?>", ""))
+		.append("</metadata></record>\n");
+	}
+	// A deleted record, and one relying on the declarations of the
+	// response.
+	sb.append("<record><header status=\"deleted\"><identifier>oai:test:gone</identifier>")
+	    .append("</header></record>\n")
+	    .append("<record><header><identifier>oai:test:x/1</identifier></header>")
+	    .append("<metadata><t:x a=\"&amp;\"><y>1 &lt; 2</y></t:x></metadata></record>\n")
+	    .append("<resumptionToken/></ListRecords></OAI-PMH>\n");
+	response = sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<RecordInput> read() throws Exception {
+	final List<RecordInput> records = new ArrayList<>();
+	int n = ListRecordsReader.read(new ByteArrayInputStream(response), "file:/test.xml",
+				       new RecordInput.Handler() {
+	    @Override
+	    public void record(RecordInput input) {
+		records.add(input);
+	    }
+	});
+	assertEquals(records.size(), n);
+	return records;
+    }
+
+    /**
+     * Test that each record is cut out with its identifier, and that
+     * namespaces declared outside the metadata are kept.
+     */
+    @Test
+    public void testRead() throws Exception {
+	List<RecordInput> records = read();
+	List<String> ids = new ArrayList<>();
+	for (RecordInput r : records)
+	    ids.add(r.getSource());
+	assertEquals(Arrays.asList("oai:test:cmdi-session.xml", "oai:test:cmdi-collection.xml",
+				   "oai:test:olac-dc.xml", "oai:test:x/1"), ids);
+
+	DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+	dbf.setNamespaceAware(true);
+	Element x = dbf.newDocumentBuilder().parse(records.get(3).open()).getDocumentElement();
+	assertEquals("urn:test", x.getNamespaceURI());
+	assertEquals("&", x.getAttribute("a"));
+	Element y = (Element)x.getFirstChild();
+	assertEquals("http://www.openarchives.org/OAI/2.0/", y.getNamespaceURI());
+	assertEquals("1 < 2", y.getTextContent());
+    }
+
+    /**
+     * Test that records cut out of a response map the same as the
+     * files they came from, with every engine.
+     */
+    @Test
+    public void testMapping() throws Exception {
+	List<RecordInput> records = read();
+	for (String engine : new String[] {"dom", "saxon", "stream", "xslt"}) {
+	    MappingTable mt = MappingTableTest.table(engine);
+	    for (int i=0; i<RECORDS.length; i++) {
+		// Facets naming the source name the identifier instead.
+		String file = MappingTableTest.resource("records/" + RECORDS[i]).toString();
+		Map<String, String> expected = new HashMap<>();
+		for (Map.Entry<String, String> e : MappingTableTest.map(mt, RECORDS[i]).entrySet())
+		    expected.put(e.getKey(), e.getValue().replace(file, "oai:test:" + RECORDS[i]));
+		assertEquals(engine + " " + RECORDS[i], expected,
+			     mt.applyMappings(records.get(i)).getFacets());
+	    }
+	}
+    }
+}
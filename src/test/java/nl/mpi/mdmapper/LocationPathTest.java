@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the class LocationPath.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+public class LocationPathTest {
+    /**
+     * Test of parse method, of class LocationPath. Case: simple paths.
+     */
+    @Test
+    public void testParse_simple() {
+	LocationPath p = LocationPath.parse(" /cmd:CMD/cmd:Header/cmd:MdSelfLink ");
+	assertNotNull(p);
+	assertTrue(p.isSimple());
+	assertEquals(3, p.getSteps().size());
+	assertEquals("cmd", p.getSteps().get(2).prefix);
+	assertEquals("MdSelfLink", p.getSteps().get(2).localName);
+
+	assertTrue(LocationPath.parse("/cmd:CMD/@CMDVersion").isSimple());
+	assertTrue(LocationPath.parse("/a/b-c/d.e/text()").isSimple());
+    }
+
+    /**
+     * Test of parse method, of class LocationPath. Case: location paths
+     * that are not simple.
+     */
+    @Test
+    public void testParse_notSimple() {
+	LocationPath p = LocationPath.parse("//cmd:Actor[cmd:Role='a[]']/cmd:Name");
+	assertNotNull(p);
+	assertFalse(p.isSimple());
+	assertTrue(p.getSteps().get(0).descendant);
+	assertEquals("cmd:Role='a[]'", p.getSteps().get(0).predicates.get(0));
+	assertEquals("//cmd:Actor[cmd:Role='a[]']/cmd:Name", p.toString());
+
+	assertFalse(LocationPath.parse("/cmd:CMD/*/cmd:Name").isSimple());
+	assertFalse(LocationPath.parse("/cmd:CMD/cmd:Title[1]").isSimple());
+    }
+
+    /**
+     * Test of splitting a path into a shared context and a relative
+     * path.
+     */
+    @Test
+    public void testContext() {
+	LocationPath p = LocationPath.parse("/cmd:CMD/cmd:Actor[cmd:Role='x']//cmd:Name/text()");
+	assertEquals(2, p.getContextLength());
+	assertEquals("/cmd:CMD/cmd:Actor[cmd:Role='x']", p.getPrefix(2));
+	assertEquals(".//cmd:Name/text()", p.getRelative(2));
+	assertEquals("./cmd:Actor[cmd:Role='x']//cmd:Name/text()", p.getRelative(1));
+
+	assertEquals(2, LocationPath.parse("/a/b/@c").getContextLength());
+	assertEquals(0, LocationPath.parse("//a/b").getContextLength());
+	assertEquals(0, LocationPath.parse("/a").getContextLength());
+    }
+
+    /**
+     * Test of parse method, of class LocationPath. Case: expressions that
+     * are not location paths of the supported form.
+     */
+    @Test
+    public void testParse_other() {
+	assertNull(LocationPath.parse("cmd:CMD/cmd:Header"));
+	assertNull(LocationPath.parse("concat(/a, /b)"));
+	assertNull(LocationPath.parse("/a | /b"));
+	assertNull(LocationPath.parse("/a/@b/c"));
+	assertNull(LocationPath.parse("/a/node()"));
+	assertNull(LocationPath.parse("/a/child::b"));
+	assertNull(LocationPath.parse("/a/b[1"));
+	assertNull(LocationPath.parse("/"));
+    }
+}
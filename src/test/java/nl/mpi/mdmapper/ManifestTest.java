@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the class Manifest.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+public class ManifestTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Configuration config(Path mapFile) {
+	Configuration config = new Configuration();
+	config.setParam("mapfile", mapFile.toString());
+	config.setParam("config", mapFile.toString());
+	config.setParam("manifest", folder.getRoot().toPath().resolve("manifest.tsv").toString());
+	return config;
+    }
+
+    private static Path write(Path file, String content) throws Exception {
+	return Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Manifest.Entry check(Manifest m, Path file) throws Exception {
+	return m.check(file, Files.readAttributes(file, BasicFileAttributes.class));
+    }
+
+    /**
+     * Test that unchanged files are skipped, changed ones are not,
+     * and deleted ones are reported as obsolete.
+     */
+    @Test
+    public void testIncremental() throws Exception {
+	Path dir = folder.getRoot().toPath();
+	Path mapFile = write(dir.resolve("map.xml"), "<mapping-table/>");
+	Path a = write(dir.resolve("a.xml"), "<a/>");
+	Path b = write(dir.resolve("b.xml"), "<b/>");
+	Path c = write(dir.resolve("c.xml"), "<c/>");
+
+	Manifest m = new Manifest(config(mapFile));
+	for (Path p : new Path[] {a, b, c}) {
+	    Manifest.Entry e = check(m, p);
+	    assertNotNull(e);
+	    m.put(e);
+	}
+	m.save();
+
+	write(b, "<bb/>");
+	Files.delete(c);
+	m = new Manifest(config(mapFile));
+	assertNull(check(m, a));
+	Manifest.Entry e = check(m, b);
+	assertNotNull(e);
+	m.put(e);
+	assertEquals(1, m.getObsoleteSources().size());
+	assertTrue(m.getObsoleteSources().contains(c.toString()));
+	m.save();
+
+	// A changed mapping file means everything is processed again.
+	write(mapFile, "<mapping-table></mapping-table>");
+	m = new Manifest(config(mapFile));
+	assertNotNull(check(m, a));
+    }
+
+    /**
+     * Test that changing a parameter that only affects performance or
+     * reporting keeps files unchanged, while one that affects the
+     * mapping does not.
+     */
+    @Test
+    public void testSettings() throws Exception {
+	Path dir = folder.getRoot().toPath();
+	Path mapFile = write(dir.resolve("map.xml"), "<mapping-table/>");
+	Path a = write(dir.resolve("a.xml"), "<a/>");
+
+	Manifest m = new Manifest(config(mapFile));
+	m.put(check(m, a));
+	m.save();
+
+	Configuration config = config(mapFile);
+	config.setParam("threads", "4");
+	config.setParam("engine", "saxon");
+	config.setParam("report", "report.json");
+	assertNull(check(new Manifest(config), a));
+
+	config.setParam("listrecords", "true");
+	assertNotNull(check(new Manifest(config), a));
+    }
+
+    /**
+     * Test that with content hashes a file that was only touched is
+     * considered unchanged.
+     */
+    @Test
+    public void testHash() throws Exception {
+	Path dir = folder.getRoot().toPath();
+	Path mapFile = write(dir.resolve("map.xml"), "<mapping-table/>");
+	Path a = write(dir.resolve("a.xml"), "<a/>");
+	Configuration config = config(mapFile);
+	config.setParam("manifesthash", "true");
+
+	Manifest m = new Manifest(config);
+	m.put(check(m, a));
+	m.save();
+
+	Files.setLastModifiedTime(a, FileTime.fromMillis(Files.getLastModifiedTime(a).toMillis() + 5000));
+	m = new Manifest(config);
+	assertNull(check(m, a));
+    }
+
+    /**
+     * Test that a file that fails keeps the output of the previous
+     * run, and is tried again in the next one.
+     */
+    @Test
+    public void testFailed() throws Exception {
+	Path dir = folder.getRoot().toPath();
+	Path mapFile = write(dir.resolve("map.xml"), "<mapping-table/>");
+	Path a = write(dir.resolve("a.xml"), "<a/>");
+	Path b = write(dir.resolve("b.xml"), "<b/>");
+
+	Manifest m = new Manifest(config(mapFile));
+	m.put(check(m, a));
+	m.put(check(m, b).withSources(Arrays.asList("b1", "b2")));
+	m.save();
+
+	// b fails after producing only one of its records.
+	write(b, "<bb/>");
+	m = new Manifest(config(mapFile));
+	assertNull(check(m, a));
+	m.putFailed(check(m, b).withSources(Arrays.asList("b1", "b3")));
+	assertTrue(m.getObsoleteSources().isEmpty());
+	assertEquals(new HashSet<>(Arrays.asList(a.toString(), "b1", "b2", "b3")), m.getSources());
+	m.save();
+
+	// Even unchanged, b is processed again.
+	m = new Manifest(config(mapFile));
+	assertNull(check(m, a));
+	assertNotNull(check(m, b));
+
+	// A file that cannot be read at all keeps its output too.
+	m.keepFailed(b);
+	assertTrue(m.getObsoleteSources().isEmpty());
+    }
+
+    /**
+     * Test that when only a list of files is processed, the files
+     * that were not listed are kept and listed ones that have
+     * disappeared are obsolete.
+     */
+    @Test
+    public void testInputList() throws Exception {
+	Path dir = folder.getRoot().toPath();
+	Path mapFile = write(dir.resolve("map.xml"), "<mapping-table/>");
+	Path a = write(dir.resolve("a.xml"), "<a/>");
+	Path b = write(dir.resolve("b.xml"), "<b/>");
+	Path c = write(dir.resolve("c.xml"), "<c/>");
+
+	Manifest m = new Manifest(config(mapFile));
+	for (Path p : new Path[] {a, b, c})
+	    m.put(check(m, p));
+	m.save();
+
+	write(b, "<bb/>");
+	Files.delete(c);
+	Path list = write(dir.resolve("list.txt"), "b.xml\nc.xml\n\nb.xml\n");
+	final List<Path> visited = new ArrayList<>();
+	final Manifest m2 = new Manifest(config(mapFile));
+	InputList il = new InputList(list.toString(), dir);
+	il.scan(new SimpleFileVisitor<Path>() {
+	    @Override
+	    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+		visited.add(file);
+		m2.put(m2.check(file, attrs));
+		return FileVisitResult.CONTINUE;
+	    }
+	});
+	assertEquals(Arrays.asList(b), visited);
+	m2.keepUnvisited(il.getListed());
+	assertEquals(2, m2.size());
+	assertEquals(Collections.singleton(c.toString()), m2.getObsoleteSources());
+    }
+}
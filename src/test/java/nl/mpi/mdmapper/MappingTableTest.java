@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper;
+
+import nl.mpi.mdmapper.output.FacetList;
+import nl.mpi.mdmapper.parser.CatalogResolver;
+import nl.mpi.mdmapper.parser.Parsers;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
+import javax.xml.xpath.XPathConstants;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the class MappingTable, using the sample mapfile and
+ * records in the test resources.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+public class MappingTableTest {
+    private static final String[] RECORDS = {
+	"cmdi-session.xml", "cmdi-collection.xml", "olac-dc.xml"
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void selectSaxon() {
+	// Same as in Main, but in the form newer JDKs expect.
+	System.setProperty("javax.xml.xpath.XPathFactory:" + XPathConstants.DOM_OBJECT_MODEL,
+			   "net.sf.saxon.xpath.XPathFactoryImpl");
+    }
+
+    static Path resource(String name) throws Exception {
+	return Paths.get(MappingTableTest.class.getResource("/" + name).toURI());
+    }
+
+    static MappingTable table(String engine) throws Exception {
+	Configuration conf = new Configuration();
+	conf.setParam("harvester", "unit test");
+	if (engine != null)
+	    conf.setParam("engine", engine);
+	return new MappingTable(resource("mapfiles/clarin-cmdi.xml").toString(), conf);
+    }
+
+    static Map<String, String> map(MappingTable mt, String record) throws Exception {
+	FacetList fl = mt.applyMappings(resource("records/" + record));
+	return fl.getFacets();
+    }
+
+    /**
+     * Test of applyMappings, with the default (DOM) engine.
+     */
+    @Test
+    public void testApplyMappings() throws Exception {
+	MappingTable mt = table(null);
+
+	Map<String, String> session = map(mt, "cmdi-session.xml");
+	assertEquals("hdl:1839/00-0000-0000-0009-2B7E-3", session.get("id"));
+	assertEquals("Route description, Kleve & surroundings", session.get("title"));
+	assertEquals("route,dialect", session.get("tags"));
+	assertEquals("Dutch", session.get("language"));
+	assertEquals("2", session.get("speakers"));
+	assertEquals("video/mpeg", session.get("mimetype"));
+	assertEquals("The Language Archive", session.get("publisher"));
+	assertTrue(session.get("notes").contains("some <background> noise"));
+	assertEquals("unit test (" + resource("records/cmdi-session.xml") + ")",
+		     session.get("harvest"));
+
+	Map<String, String> coll = map(mt, "cmdi-collection.xml");
+	assertEquals("Dutch-German border dialects corpus", coll.get("title"));
+	assertEquals("dialect,border", coll.get("tags"));
+	assertEquals("Dutch-German", coll.get("shortTitle"));
+	assertEquals("5.9,51.7,6.3,51.9", coll.get("spatial"));
+	assertEquals("MPI-PL", coll.get("publisher"));
+	assertEquals("0", coll.get("speakers"));
+	assertNull(coll.get("country"));
+
+	Map<String, String> olac = map(mt, "olac-dc.xml");
+	assertEquals("oai:example.org:olac-17", olac.get("id"));
+	assertEquals("xyz", olac.get("language"));
+	assertEquals("lexicon", olac.get("tags"));
+	assertNull(olac.get("notes"));
+	assertNull(olac.get("version"));
+
+	assertEquals(3, mt.getNumUses());
+	assertEquals(1, mt.getErrors());
+    }
+
+    /**
+     * Test that every evaluation of a mapping is profiled, and that
+     * the evaluations that did not match are counted as misses.
+     */
+    @Test
+    public void testMappingCosts() throws Exception {
+	MappingTable mt = table(null);
+	for (String rec : RECORDS)
+	    map(mt, rec);
+	for (MappingStatistics.Facet f : mt.getStatistics().getFacets()) {
+	    long reached = RECORDS.length;
+	    for (int i=0; i<f.getMappings().size(); i++) {
+		MappingStatistics.Cost c = f.getCosts().get(i);
+		// Mappings that cannot match a record are skipped.
+		assertTrue(f.getName(), c.getEvaluations() <= reached);
+		assertEquals(f.getName(), c.getEvaluations() - f.getUses().get(i), c.getMisses());
+		// Later mappings are tried only when the earlier ones miss.
+		reached -= f.getUses().get(i);
+	    }
+	}
+    }
+
+    /**
+     * Test that mappings are skipped for records with another root
+     * element, or of another known profile, and only for those.
+     */
+    @Test
+    public void testDispatch() throws Exception {
+	MappingTable mt = table(null);
+	assertEquals("Discourse", map(mt, "cmdi-session.xml").get("recordingGenre"));
+	assertNull(map(mt, "cmdi-collection.xml").get("recordingGenre"));
+	assertNull(map(mt, "olac-dc.xml").get("recordingGenre"));
+
+	for (MappingStatistics.Facet f : mt.getStatistics().getFacets()) {
+	    if (f.getName().equals("id")) {
+		// CMDI path not tried on OLAC, and vice versa (matched first).
+		assertEquals(2, f.getCosts().get(0).getEvaluations());
+		assertEquals(1, f.getCosts().get(1).getEvaluations());
+	    } else if (f.getName().equals("recordingGenre")) {
+		// Skipped for the collection profile; the OLAC record has
+		// no known profile, but no Genre element either.
+		assertEquals(1, f.getCosts().get(0).getEvaluations());
+	    }
+	}
+    }
+
+    /**
+     * Test that location paths are not evaluated on records that lack
+     * the elements they name, with each engine that collects the
+     * element names.
+     */
+    @Test
+    public void testElementNames() throws Exception {
+	for (String engine : new String[] { null, "saxon", "stream" }) {
+	    MappingTable mt = table(engine);
+	    for (String rec : RECORDS)
+		map(mt, rec);
+	    for (MappingStatistics.Facet f : mt.getStatistics().getFacets()) {
+		// Only the collection has a boundingBox.
+		if (f.getName().equals("spatial"))
+		    assertEquals(engine, 1, f.getCosts().get(0).getEvaluations());
+	    }
+	}
+    }
+
+    /**
+     * Test that location paths evaluated relative to a shared context
+     * give the same results as whole paths, also when the context
+     * selects several nodes and only a later one has a match.
+     */
+    @Test
+    public void testSharedContexts() throws Exception {
+	String actor = "/cmd:CMD/cmd:Components/cmd:Session/cmd:MDGroup/cmd:Actors/cmd:Actor";
+	String[] paths = {
+	    actor + "/cmd:Sex",
+	    actor + "/cmd:Name[../cmd:Role='Researcher']",
+	    actor + "/cmd:Age[. > 45]/text()",
+	    actor + "//cmd:Id",
+	    actor + "/cmd:Missing",
+	    "/cmd:CMD/cmd:Components/cmd:Session/cmd:Title[@xml:lang='nl']",
+	    "/cmd:CMD/cmd:Header/cmd:MdSelfLink",
+	    "/olac:olac/dc:subject[@xsi:type='olac:language']/@olac:code"
+	};
+	NSContext ns = new NSContext();
+	ns.add("cmd", "http://www.clarin.eu/cmd/");
+	ns.add("olac", "http://www.language-archives.org/OLAC/1.1/");
+	ns.add("dc", "http://purl.org/dc/elements/1.1/");
+	ns.add("xsi", "http://www.w3.org/2001/XMLSchema-instance");
+
+	Parsers parsers = new Parsers(new CatalogResolver(null, false), true);
+	for (Engine engine : new Engine[] { new DomEngine(ns, parsers), new SaxonEngine(ns, parsers) }) {
+	    for (String rec : RECORDS) {
+		Record r = engine.parse(resource("records/" + rec));
+		for (String path : paths) {
+		    LocationPath p = LocationPath.parse(path);
+		    for (int n=1; n<=p.getContextLength(); n++) {
+			CompiledXpath shared = engine.compile(path, p.getPrefix(n), p.getRelative(n));
+			assertEquals(rec + ": " + path + " (" + n + ")",
+				     engine.compile(path).evaluate(r), shared.evaluate(r));
+		    }
+		}
+	    }
+	}
+    }
+
+    /**
+     * Test that a text node selected relative to a shared context has
+     * the whole text, though DOM splits it at a CDATA section.
+     */
+    @Test
+    public void testSharedContextText() throws Exception {
+	Path file = folder.getRoot().toPath().resolve("cdata.xml");
+	Files.write(file, ("<r><a/><a><b>S &amp;<![CDATA[ x<y]]>1</b></a></r>")
+		    .getBytes(StandardCharsets.UTF_8));
+	String[] paths = { "/r/a/b/text()", "/r/a/b" };
+	Parsers parsers = new Parsers(new CatalogResolver(null, false), true);
+	for (Engine engine : new Engine[] { new DomEngine(new NSContext(), parsers),
+					    new SaxonEngine(new NSContext(), parsers) }) {
+	    Record r = engine.parse(file);
+	    for (String path : paths) {
+		LocationPath p = LocationPath.parse(path);
+		CompiledXpath shared = engine.compile(path, p.getPrefix(2), p.getRelative(2));
+		assertEquals(path, "S & x<y1", shared.evaluate(r));
+	    }
+	}
+    }
+
+    /**
+     * Test that mappings of different facets that use the same
+     * expression give the same results, and are counted separately.
+     */
+    @Test
+    public void testRepeatedExpressions() throws Exception {
+	MappingTable mt = table(null);
+	for (String rec : RECORDS) {
+	    Map<String, String> facets = map(mt, rec);
+	    assertEquals(rec, facets.get("title"), facets.get("displayTitle"));
+	}
+	for (MappingStatistics.Facet f : mt.getStatistics().getFacets()) {
+	    if (f.getName().equals("title"))
+		assertEquals(Arrays.asList(1L, 0L, 1L, 1L), f.getUses());
+	    else if (f.getName().equals("displayTitle"))
+		assertEquals(Arrays.asList(1L, 1L, 1L), f.getUses());
+	}
+    }
+
+    /**
+     * Test that the Saxon engine gives exactly the same results as the
+     * DOM engine.
+     */
+    @Test
+    public void testSaxonEngine() throws Exception {
+	assertSameResults(table(null), table("saxon"));
+    }
+
+    /**
+     * Test that the streaming engine gives exactly the same results as
+     * the DOM engine.
+     */
+    @Test
+    public void testStreamEngine() throws Exception {
+	assertSameResults(table(null), table("stream"));
+    }
+
+    /**
+     * Test that the XSLT engine gives exactly the same results as the
+     * DOM engine.
+     */
+    @Test
+    public void testXsltEngine() throws Exception {
+	assertSameResults(table(null), table("xslt"));
+    }
+
+    static void assertSameResults(MappingTable expected, MappingTable actual) throws Exception {
+	for (String rec : RECORDS) {
+	    assertEquals(rec, map(expected, rec), map(actual, rec));
+	}
+	assertEquals(expected.getErrors(), actual.getErrors());
+	assertEquals(expected.getStatistics().getFacets().size(),
+		     actual.getStatistics().getFacets().size());
+	for (int i=0; i<expected.getStatistics().getFacets().size(); i++) {
+	    MappingStatistics.Facet f1 = expected.getStatistics().getFacets().get(i);
+	    MappingStatistics.Facet f2 = actual.getStatistics().getFacets().get(i);
+	    assertEquals(f1.getName(), f2.getName());
+	    assertEquals(f1.getName(), f1.getUses(), f2.getUses());
+	}
+    }
+}
@@ -6,6 +6,7 @@
 
 package nl.mpi.mdmapper;
 
+import nl.mpi.mdmapper.output.FacetList;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -27,4 +28,25 @@ public class StringMappingTest {
 	String result = StringMapping.expand(str, conf, null);
 	assertEquals(expected, result);
     }
+
+    /**
+     * Test that a mapping expands variables the same way as the
+     * expand method, including the file name.
+     */
+    @Test
+    public void testApply() throws Exception {
+	Configuration conf = new Configuration();
+	conf.setParam("test1", "xyz");
+	conf.setParam("nested", "(${test1})");
+	FacetList fl = new FacetList("/data/rec.xml");
+	for (String str : new String[] {"plain", "${test1}", "${filename}",
+					"a ${filename} b ${nested} ${filename}${filename} c ${test2}"}) {
+	    StringMapping sm = new StringMapping(str, conf);
+	    assertEquals(StringMapping.expand(str, conf, fl), sm.apply(null, fl));
+	}
+	assertEquals("a /data/rec.xml b (xyz) /data/rec.xml/data/rec.xml c ",
+		     new StringMapping("a ${filename} b ${nested} ${filename}${filename} c ${test2}",
+				       conf).apply(null, fl));
+	assertEquals("x ${test1}", new StringMapping("x ${test1}").apply(null, fl));
+    }
 }
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the class StripedCounter.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+public class StripedCounterTest {
+    /**
+     * Test that concurrent increments from several threads are all
+     * counted.
+     */
+    @Test
+    public void testConcurrentIncrements() throws InterruptedException {
+	final StripedCounter counter = new StripedCounter();
+	final int perThread = 100000;
+	Thread[] threads = new Thread[8];
+	for (int i=0; i<threads.length; i++) {
+	    threads[i] = new Thread() {
+		@Override
+		public void run() {
+		    for (int j=0; j<perThread; j++)
+			counter.increment();
+		}
+	    };
+	    threads[i].start();
+	}
+	for (Thread t : threads)
+	    t.join();
+
+	assertEquals((long)threads.length * perThread, counter.sum());
+    }
+
+    /**
+     * Test of the add method, of class StripedCounter.
+     */
+    @Test
+    public void testAdd() {
+	StripedCounter counter = new StripedCounter();
+	assertEquals(0, counter.sum());
+	counter.add(5);
+	counter.add(-2);
+	assertEquals(3, counter.sum());
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper.output;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the class AsyncOutput.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+public class AsyncOutputTest {
+    /** Output that remembers the sources of the records saved. */
+    private static class CollectingOutput implements Output {
+	final Set<String> saved = Collections.synchronizedSet(new HashSet<String>());
+	boolean closed;
+
+	@Override
+	public void save(FacetList fl) {
+	    saved.add(fl.getSource());
+	}
+	@Override
+	public void remove(String source) {
+	    saved.remove(source);
+	}
+	@Override
+	public void close() {
+	    closed = true;
+	}
+    }
+
+    /**
+     * Test that all records have been saved once the output is
+     * closed, even with a queue much smaller than the number of
+     * records.
+     */
+    @Test
+    public void testDrainOnClose() {
+	CollectingOutput target = new CollectingOutput();
+	Output o = new AsyncOutput(new Output[] {target}, 3, 4);
+	for (int i=0; i<1000; i++)
+	    o.save(new FacetList("r" + i));
+	o.close();
+
+	assertTrue(target.closed);
+	assertEquals(1000, target.saved.size());
+    }
+}
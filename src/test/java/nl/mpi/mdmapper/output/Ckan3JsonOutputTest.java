@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper.output;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the class Ckan3JsonOutput.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+public class Ckan3JsonOutputTest {
+    private static final List<String> internal = Arrays.asList
+	("author", "maintainer", "title", "name", "version", "url", "notes", "status", "id", "group");
+
+    /**
+     * Build the record as a map, the way the output originally did
+     * before serialising it with Gson.
+     */
+    @SuppressWarnings("unchecked")
+    private static Map toMap(FacetList fl) {
+	Map rec = new HashMap();
+	for (Map.Entry<String, String> e : fl.res.entrySet()) {
+	    String key = e.getKey();
+	    String value = e.getValue();
+	    if ("tags".equals(key)) {
+		List tags = new ArrayList();
+		rec.put("tags", tags);
+		for (String part : value.split(",")) {
+		    Map tt = new HashMap<>();
+		    tt.put("name", part);
+		    tags.add(tt);
+		}
+		continue;
+	    }
+	    if ("spatial".equals(key)) {
+		String[] p = value.split(",");
+		if (p.length < 4)
+		    continue;
+		value = "{\"type\":\"Polygon\",\"coordinates\":[[[" + p[0] + "," + p[1] + "],["
+		    + p[0] + "," + p[3] + "],[" + p[2] + "," + p[3] + "],[" + p[2] + "," + p[1]
+		    + "],[" + p[0] + "," + p[1] + "]]]}";
+	    } else if (internal.contains(key)) {
+		rec.put(key, value);
+		continue;
+	    }
+	    List extras = (List)rec.get("extras");
+	    if (extras == null) {
+		extras = new ArrayList();
+		rec.put("extras", extras);
+	    }
+	    Map tt = new HashMap<>();
+	    tt.put("key", key);
+	    tt.put("value", value);
+	    extras.add(tt);
+	}
+	return rec;
+    }
+
+    /**
+     * Test that random records are written exactly as Gson would
+     * write the corresponding maps.
+     */
+    @Test
+    public void testSameAsGson() throws Exception {
+	List<String> names = new ArrayList<>(internal);
+	names.addAll(Arrays.asList("tags", "spatial", "language", "extras", "format", "date"));
+	for (int i=0; i<30; i++)
+	    names.add("extra" + i);
+	String[] values = {"plain", "<b>&amp;</b> 'q' \"dq\" = x", "a,b,,c", "1,2,3,4", "1,2",
+			   "line\nbreak ", "\u00e9\u4e2d"};
+
+	Random random = new Random(42);
+	for (boolean pretty : new boolean[] {false, true}) {
+	    Gson gson = pretty ? new GsonBuilder().setPrettyPrinting().create() : new Gson();
+	    for (int n=0; n<500; n++) {
+		FacetList fl = new FacetList("r.xml");
+		int size = random.nextInt(names.size());
+		for (int j=0; j<size; j++)
+		    fl.add(names.get(random.nextInt(names.size())), values[random.nextInt(values.length)]);
+
+		StringWriter sw = new StringWriter();
+		Ckan3JsonOutput.write(fl, Ckan3JsonOutput.newJsonWriter(sw, pretty));
+		assertEquals(gson.toJson(toMap(fl)), sw.toString());
+	    }
+	}
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper.output;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the class JsonLinesOutput.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+public class JsonLinesOutputTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static FacetList record(int i) {
+	FacetList fl = new FacetList("/data/r" + i + ".xml");
+	fl.add("id", "r" + i);
+	fl.add("title", "Record " + i);
+	return fl;
+    }
+
+    /**
+     * Test that output rolls over to a new file after the given
+     * number of records, and that every record ends up on a line of
+     * its own.
+     */
+    @Test
+    public void testRollover() throws Exception {
+	Path dir = folder.getRoot().toPath();
+	Output o = new JsonLinesOutput(false, true, 2, 0, dir);
+	for (int i=0; i<5; i++)
+	    o.save(record(i));
+	o.close();
+
+	List<Path> files = new ArrayList<>();
+	try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+	    for (Path p : ds)
+		files.add(p);
+	}
+	Collections.sort(files);
+	assertEquals(3, files.size());
+
+	List<String> lines = new ArrayList<>();
+	for (Path p : files) {
+	    assertTrue(p.toString().endsWith(".jsonl.gz"));
+	    try (BufferedReader r = new BufferedReader
+		 (new InputStreamReader(new GZIPInputStream(Files.newInputStream(p)),
+					StandardCharsets.UTF_8))) {
+		String line;
+		while ((line = r.readLine()) != null)
+		    lines.add(line);
+	    }
+	}
+	assertEquals(5, lines.size());
+	assertTrue(lines.get(4).contains("\"id\":\"r4\""));
+	assertTrue(lines.get(4).contains("\"title\":\"Record 4\""));
+    }
+
+    /**
+     * Test that outputs writing to the same directory at the same
+     * time do not overwrite each other's files.
+     */
+    @Test
+    public void testNoOverwrite() throws Exception {
+	Path dir = folder.getRoot().toPath();
+	Output[] outputs = {
+	    new JsonLinesOutput(false, false, 0, 0, dir),
+	    new JsonLinesOutput(false, false, 0, 0, dir),
+	    new JsonLinesOutput(true, false, 0, 0, dir)
+	};
+	for (int i=0; i<outputs.length; i++) {
+	    outputs[i].save(record(i));
+	    outputs[i].close();
+	}
+
+	List<Path> files = new ArrayList<>();
+	try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+	    for (Path p : ds)
+		files.add(p);
+	}
+	assertEquals(outputs.length, files.size());
+	for (Path p : files)
+	    assertEquals(1, Files.readAllLines(p, StandardCharsets.UTF_8).size());
+    }
+}
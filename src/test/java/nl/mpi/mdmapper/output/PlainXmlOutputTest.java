@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper.output;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the class PlainXmlOutput.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+public class PlainXmlOutputTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Serialise a facet list the way the output originally did, by
+     * transforming a DOM tree.
+     */
+    private static byte[] transform(FacetList fl, boolean indent) throws Exception {
+	Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+	Element root = doc.createElement("fieldList");
+	doc.appendChild(root);
+	for (Map.Entry<String, String> e : fl.res.entrySet()) {
+	    Element field = doc.createElement("field");
+	    root.appendChild(field);
+	    field.setAttribute("name", e.getKey());
+	    field.appendChild(doc.createTextNode(e.getValue()));
+	}
+	Transformer t = TransformerFactory.newInstance().newTransformer();
+	t.setOutputProperty(OutputKeys.INDENT, indent ? "yes" : "no");
+	ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	PrintStream out = new PrintStream(bytes);
+	t.transform(new DOMSource(doc), new StreamResult(out));
+	out.println();
+	out.close();
+	return bytes.toByteArray();
+    }
+
+    private void assertSameOutput(FacetList fl) throws Exception {
+	for (boolean indent : new boolean[] {false, true}) {
+	    Path dir = folder.newFolder("out" + indent + fl.getSource()).toPath();
+	    new PlainXmlOutput(indent, dir).save(fl);
+	    byte[] actual = Files.readAllBytes(dir.resolve(fl.getSourceShort()));
+	    byte[] expected = transform(fl, indent);
+	    assertTrue("Output of " + fl.getSource() + " (indent " + indent + "):\n"
+		       + new String(actual, "UTF-8") + "\nexpected:\n" + new String(expected, "UTF-8"),
+		       Arrays.equals(expected, actual));
+	}
+    }
+
+    /**
+     * Test that the output is exactly the same as that of the
+     * identity transformation, including escaping.
+     */
+    @Test
+    public void testSameAsTransformer() throws Exception {
+	FacetList fl = new FacetList("a.xml");
+	fl.add("title", "A \"title\" <here> & 'there'");
+	fl.add("a&b<c>\"d'", "x");
+	fl.add("multi", "line one\n\tline two\u00e9\u4e2d");
+	fl.add("empty", "");
+	assertSameOutput(fl);
+
+	fl = new FacetList("b.xml");
+	fl.add("odd", "cr\r here, nel \u0085, ls \u2028, del \u007f, astral \ud83d\ude00");
+	fl.add("plain", "value");
+	assertSameOutput(fl);
+
+	assertSameOutput(new FacetList("c.xml"));
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2013-2014, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.mdmapper.parser;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.w3c.dom.Document;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the classes CatalogResolver and Parsers.
+ *
+ * @author Lari Lampen (MPI-PL)
+ */
+public class CatalogResolverTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** A record whose DTD (on an unreachable host) declares an entity. */
+    private static final String RECORD =
+	"<!DOCTYPE r SYSTEM \"http://dtd.invalid/schemas/r.dtd\"><r>&greeting;</r>";
+
+    private static final String DTD = "<!ENTITY greeting \"hello\">";
+
+    private static Document parse(CatalogResolver resolver, String xml) throws Exception {
+	return new Parsers(resolver, true).getDocumentBuilder()
+	    .parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private Path catalog(String path) throws Exception {
+	Path file = folder.getRoot().toPath().resolve(path);
+	Files.createDirectories(file.getParent());
+	Files.write(file, DTD.getBytes(StandardCharsets.UTF_8));
+	return folder.getRoot().toPath();
+    }
+
+    /**
+     * Test that entities are found in the catalog by host and path,
+     * and are cached.
+     */
+    @Test
+    public void testMirroredPath() throws Exception {
+	Path dir = catalog("dtd.invalid/schemas/r.dtd");
+	CatalogResolver resolver = new CatalogResolver(dir, false);
+	assertEquals("hello", parse(resolver, RECORD).getDocumentElement().getTextContent());
+
+	Files.delete(dir.resolve("dtd.invalid/schemas/r.dtd"));
+	assertEquals("hello", parse(resolver, RECORD).getDocumentElement().getTextContent());
+    }
+
+    /**
+     * Test that entities are found in the catalog by file name only.
+     */
+    @Test
+    public void testFileName() throws Exception {
+	CatalogResolver resolver = new CatalogResolver(catalog("r.dtd"), false);
+	assertEquals("hello", parse(resolver, RECORD).getDocumentElement().getTextContent());
+    }
+
+    /**
+     * Test that with external loading disabled, unknown DTDs are not
+     * fetched, and records that do not need them can still be parsed.
+     */
+    @Test
+    public void testOffline() throws Exception {
+	CatalogResolver resolver = new CatalogResolver(null, false);
+	Document doc = parse(resolver, "<!DOCTYPE r SYSTEM \"http://dtd.invalid/r.dtd\"><r>x</r>");
+	assertEquals("x", doc.getDocumentElement().getTextContent());
+	// The entity declared in the missing DTD is skipped.
+	assertEquals("", parse(resolver, RECORD).getDocumentElement().getTextContent());
+    }
+}